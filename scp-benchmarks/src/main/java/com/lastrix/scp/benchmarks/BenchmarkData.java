@@ -0,0 +1,60 @@
+package com.lastrix.scp.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Changes resembling production data, generated from fixed seed so every run measures the same input
+ */
+final class BenchmarkData {
+    private static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Same setup as mapper of application, instants are written as ISO strings
+     */
+    static ObjectMapper mapper() {
+        return new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    static List<EnrolleeSelect> selects(int count) {
+        var random = new Random(SEED);
+        var now = Instant.parse("2022-09-01T10:00:00Z");
+        List<EnrolleeSelect> r = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            var created = now.plusMillis(random.nextInt(1_000_000));
+            // most changes are plain selections, some of them are confirmed or cancelled
+            int kind = random.nextInt(10);
+            r.add(new EnrolleeSelect(
+                    new UUID(random.nextLong(), random.nextLong()),
+                    random.nextInt(4),
+                    new UUID(random.nextLong(), random.nextLong()),
+                    (short) random.nextInt(3),
+                    random.nextInt(300),
+                    created,
+                    kind == 0 ? created.plusSeconds(60) : null,
+                    kind == 1 ? created.plusSeconds(120) : null,
+                    (short) random.nextInt(16)));
+        }
+        return r;
+    }
+
+    static List<EnrolleeSelectId> ids(int count) {
+        return selects(count).stream()
+                .map(x -> new EnrolleeSelectId(x.getUserId(), x.getSessionId(), x.getSpecId(), x.getOrdinal()))
+                .toList();
+    }
+}
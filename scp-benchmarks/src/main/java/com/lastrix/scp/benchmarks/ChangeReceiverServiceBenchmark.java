@@ -0,0 +1,112 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.IdHasher;
+import com.lastrix.scp.receiver.ChangeChunk;
+import com.lastrix.scp.receiver.ChangeReceiver;
+import com.lastrix.scp.receiver.ChangeReceiverService;
+import com.lastrix.scp.receiver.ChangeSinkService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receiver pipeline over in-memory receiver and sink: queueing of received
+ * chunks, dedup and batching of sink commits. Benchmark thread keeps
+ * {@link #WINDOW} changes not committed, so sink is woken by queue size
+ * and never waits for its one second timer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeReceiverServiceBenchmark {
+    private static final int CHUNK_SIZE = 128;
+    private static final int WINDOW = 8 * CHUNK_SIZE;
+    private static final int RECEIVE_BUFFER_SIZE = 4 * WINDOW;
+
+    @Param({"32", "256"})
+    public int sinkChunkSize;
+
+    private MemoryReceiver receiver;
+    private MemorySink sink;
+    private BenchmarkService service;
+    private long next;
+
+    @Setup
+    public void setUp() {
+        receiver = new MemoryReceiver();
+        sink = new MemorySink();
+        service = new BenchmarkService(sink, receiver, sinkChunkSize, 2 * sinkChunkSize, RECEIVE_BUFFER_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.preDestroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public long receiveChunk() throws InterruptedException {
+        List<Long> changes = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            changes.add(next++);
+        }
+        receiver.chunks.put(new ChangeChunk<>(changes, next));
+        // wait while too many changes are not committed yet
+        while (next - sink.committed.get() > WINDOW) {
+            LockSupport.parkNanos(10_000);
+        }
+        return next;
+    }
+
+    private static final class BenchmarkService extends ChangeReceiverService<Long> {
+        BenchmarkService(ChangeSinkService<Long> sink, ChangeReceiver<Long> receiver, int sinkChunkSize, int maxSinkChunkSize, int receiveBufferSize) {
+            super(sink, receiver, sinkChunkSize, maxSinkChunkSize, receiveBufferSize);
+        }
+
+        @Override
+        protected void idOf(Long c, IdHasher id) {
+            id.putLong(c);
+        }
+    }
+
+    /**
+     * Hands out chunks put by benchmark thread, one chunk per receive as kafka poll would
+     */
+    private static final class MemoryReceiver implements ChangeReceiver<Long> {
+        private final BlockingQueue<ChangeChunk<Long>> chunks = new ArrayBlockingQueue<>(RECEIVE_BUFFER_SIZE / CHUNK_SIZE);
+
+        @Override
+        public ChangeChunk<Long> receive(int maxSize, Duration duration) {
+            try {
+                var chunk = chunks.poll(duration.toNanos(), TimeUnit.NANOSECONDS);
+                return chunk == null ? new ChangeChunk<>(List.of(), null) : chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ChangeChunk<>(List.of(), null);
+            }
+        }
+
+        @Override
+        public void commit(Object slab) {
+        }
+    }
+
+    private static final class MemorySink implements ChangeSinkService<Long> {
+        private final AtomicLong committed = new AtomicLong();
+
+        @Override
+        public void commit(List<Long> changes) {
+            committed.addAndGet(changes.size());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.IdHasher;
+import com.lastrix.scp.sender.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Whole sender pipeline over in-memory source and sender: fetch, dedup and
+ * registration of changes, routing to workers, draining and group commit.
+ * Benchmark thread keeps {@link #WINDOW} pages in flight, so score is
+ * the steady throughput of service in changes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeSenderServiceBenchmark {
+    private static final int PAGE_SIZE = 1024;
+    private static final int WINDOW = 8 * PAGE_SIZE;
+
+    @Param({"1", "8"})
+    public int channels;
+    @Param({"2", "4"})
+    public int parallelism;
+    @Param({"256"})
+    public int maxProcessingChunk;
+
+    private MemorySource source;
+    private BenchmarkService service;
+
+    @Setup
+    public void setUp() {
+        var config = new ChangeSenderConfig();
+        config.setChannels(channels);
+        config.setParallelism(parallelism);
+        config.setMaxProcessingChunk(maxProcessingChunk);
+        config.setCommitLinger(Duration.ofMillis(1));
+        source = new MemorySource();
+        service = new BenchmarkService(source, new MemorySender(), config, channels);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.preDestroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public long sendPage() {
+        long released = source.release(PAGE_SIZE);
+        // wait while too many changes are not committed yet
+        while (released - source.committed.get() > WINDOW) {
+            LockSupport.parkNanos(10_000);
+        }
+        return released;
+    }
+
+    private static final class BenchmarkService extends ChangeSenderService<Long> {
+        private final int channels;
+
+        BenchmarkService(ChangeSourceService<Long> source, ChangeSender<Long> sender, ChangeSenderConfig config, int channels) {
+            super(source, sender, config);
+            this.channels = channels;
+        }
+
+        @Override
+        protected void idOf(Long o, IdHasher id) {
+            id.putLong(o);
+        }
+
+        @Override
+        protected int channelOf(Long o) {
+            return (int) (o % channels);
+        }
+    }
+
+    /**
+     * Source of increasing numbers, only released ones are visible
+     */
+    private static final class MemorySource implements ChangeSourceService<Long> {
+        private final AtomicLong released = new AtomicLong();
+        private final AtomicLong committed = new AtomicLong();
+        private final AtomicLong position = new AtomicLong();
+        private volatile Runnable listener;
+
+        long release(int count) {
+            long r = released.addAndGet(count);
+            var l = listener;
+            if (l != null) {
+                l.run();
+            }
+            return r;
+        }
+
+        @Override
+        public List<Long> fetch(int page) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized ChangePage<Long> fetchNext(Object cursor) {
+            // every change is read once, sender never fails them
+            long from = position.get();
+            int count = (int) Math.min(PAGE_SIZE, released.get() - from);
+            List<Long> r = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                r.add(from + i);
+            }
+            position.set(from + count);
+            return new ChangePage<>(r, null);
+        }
+
+        @Override
+        public void commit(List<Long> changes) {
+            committed.addAndGet(changes.size());
+        }
+
+        @Override
+        public void subscribe(Runnable listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Acknowledges every change right away on sending thread
+     */
+    private static final class MemorySender implements ChangeSender<Long> {
+        @Override
+        public List<Long> send(List<Long> changes, int channel) {
+            return changes;
+        }
+
+        @Override
+        public CompletionStage<List<Long>> sendAsync(List<Long> changes, int channel) {
+            return CompletableFuture.completedFuture(changes);
+        }
+    }
+}
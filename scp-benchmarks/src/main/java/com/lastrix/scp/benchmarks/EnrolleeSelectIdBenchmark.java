@@ -0,0 +1,62 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.IdHasher;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of change identifier, java hash code for maps of tracked
+ * changes and 128 bit fingerprint for dedup
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnrolleeSelectIdBenchmark {
+    private static final int IDS = 1 << 14;
+
+    private final IdHasher hasher = new IdHasher();
+    private List<EnrolleeSelectId> ids;
+    private List<EnrolleeSelectId> copies;
+    private Map<EnrolleeSelectId, Boolean> map;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        ids = BenchmarkData.ids(IDS);
+        // equal but not same instances, as they come from decoder
+        copies = BenchmarkData.ids(IDS);
+        map = new HashMap<>();
+        ids.forEach(x -> map.put(x, Boolean.TRUE));
+    }
+
+    @Benchmark
+    public int javaHashCode() {
+        return ids.get(i++ & (IDS - 1)).hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        int n = i++ & (IDS - 1);
+        return ids.get(n).equals(copies.get(n));
+    }
+
+    @Benchmark
+    public Boolean mapLookup() {
+        return map.get(copies.get(i++ & (IDS - 1)));
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        var c = ids.get(i++ & (IDS - 1));
+        hasher.reset().putUUID(c.getUserId()).putInt(c.getSessionId()).putUUID(c.getSpecId()).putInt(c.getOrdinal());
+        return hasher.high() ^ hasher.low();
+    }
+}
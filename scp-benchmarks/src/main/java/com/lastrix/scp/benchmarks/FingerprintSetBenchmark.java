@@ -0,0 +1,66 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.FingerprintSet;
+import com.lastrix.scp.common.IdHasher;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedup of sender and receiver: fingerprint of change identifier checked
+ * against set of remembered ones. Fresh identifiers evict the oldest ones
+ * once set is full, known ones are reported as duplicates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FingerprintSetBenchmark {
+    private static final int IDS = 1 << 16;
+
+    @Param({"65536", "1048576"})
+    public int capacity;
+
+    private final IdHasher hasher = new IdHasher();
+    private List<EnrolleeSelectId> ids;
+    private FingerprintSet known;
+    private FingerprintSet set;
+    private long next;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        ids = BenchmarkData.ids(IDS);
+        known = new FingerprintSet(capacity);
+        ids.forEach(x -> known.add(hash(x)));
+        set = new FingerprintSet(capacity);
+        // fill set, so every fresh add evicts
+        while (set.size() < capacity) {
+            set.add(hasher.reset().putLong(next++));
+        }
+    }
+
+    @Benchmark
+    public boolean addFresh() {
+        return set.add(hasher.reset().putLong(next++));
+    }
+
+    @Benchmark
+    public boolean addDuplicate() {
+        return known.add(hash(ids.get(i++ & (IDS - 1))));
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return known.contains(hash(ids.get(i++ & (IDS - 1))));
+    }
+
+    private IdHasher hash(EnrolleeSelectId c) {
+        // same parts as id of receiver and sender services
+        return hasher.reset().putUUID(c.getUserId()).putInt(c.getSessionId()).putUUID(c.getSpecId()).putInt(c.getOrdinal());
+    }
+}
@@ -0,0 +1,112 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.ChangeEnvelope;
+import com.lastrix.scp.common.EnvelopeCompression;
+import com.lastrix.scp.receiver.ChangeChunk;
+import com.lastrix.scp.receiver.ChangeDecoder;
+import com.lastrix.scp.receiver.JsonChangeDecoder;
+import com.lastrix.scp.receiver.KafkaChangeReceiver;
+import com.lastrix.scp.sender.ChangeBuffer;
+import com.lastrix.scp.sender.ChangeCodec;
+import com.lastrix.scp.sender.JsonChangeCodec;
+import com.lastrix.scp.writesender.cfg.CodecType;
+import com.lastrix.scp.writesender.codec.EnrolleeSelectIdBinaryCodec;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of confirmations by receiver per codec and envelope. Records are
+ * encoded once, every invocation hands them to consumer again with new offsets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaChangeReceiverBenchmark {
+    private static final String TOPIC = "select-indirect-0";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final int CHUNK_SIZE = 256;
+
+    @Param({"JSON", "BINARY"})
+    public CodecType codec;
+    /**
+     * Compression of envelope, off receives every change as separate record
+     */
+    @Param({"off", "NONE", "LZ4", "ZSTD"})
+    public String envelope;
+
+    private final List<byte[]> values = new ArrayList<>();
+    private RecordHeaders headers;
+    private MockConsumer<String, byte[]> consumer;
+    private KafkaChangeReceiver<EnrolleeSelectId> receiver;
+    private long offset;
+
+    @Setup
+    public void setUp() {
+        var mapper = BenchmarkData.mapper();
+        ChangeCodec<EnrolleeSelectId> encoder;
+        ChangeDecoder<EnrolleeSelectId> decoder;
+        switch (codec) {
+            case JSON -> {
+                encoder = new JsonChangeCodec<>(mapper, EnrolleeSelectId.class);
+                decoder = new JsonChangeDecoder<>(mapper, EnrolleeSelectId.class);
+            }
+            case BINARY -> {
+                var c = new EnrolleeSelectIdBinaryCodec();
+                encoder = c;
+                decoder = c;
+            }
+            default -> throw new IllegalStateException("Unknown codec: " + codec);
+        }
+        var ids = BenchmarkData.ids(CHUNK_SIZE);
+        var buffer = new ChangeBuffer(1024);
+        if ("off".equals(envelope)) {
+            headers = new RecordHeaders();
+            for (var id : ids) {
+                buffer.reset();
+                encoder.encode(id, buffer);
+                values.add(buffer.toByteArray());
+            }
+        } else {
+            // single envelope, as sender packs it with default limits
+            headers = new RecordHeaders(List.of(new RecordHeader(ChangeEnvelope.HEADER, new byte[]{ChangeEnvelope.VERSION})));
+            for (var id : ids) {
+                int position = buffer.size();
+                buffer.writeInt(0);
+                encoder.encode(id, buffer);
+                buffer.putInt(position, buffer.size() - position - ChangeEnvelope.ENTRY_OVERHEAD);
+            }
+            values.add(ChangeEnvelope.pack(buffer.array(), buffer.size(), CHUNK_SIZE, EnvelopeCompression.valueOf(envelope)));
+        }
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        receiver = new KafkaChangeReceiver<>(consumer, decoder, TOPIC);
+        consumer.rebalance(List.of(PARTITION));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public ChangeChunk<EnrolleeSelectId> receive() {
+        for (var v : values) {
+            consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset++, ConsumerRecord.NO_TIMESTAMP, TimestampType.NO_TIMESTAMP_TYPE,
+                    0, v.length, null, v, headers, Optional.empty()));
+        }
+        return receiver.receive(CHUNK_SIZE, Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,112 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.common.EnvelopeCompression;
+import com.lastrix.scp.sender.*;
+import com.lastrix.scp.writesender.cfg.CodecType;
+import com.lastrix.scp.writesender.cfg.RecordKey;
+import com.lastrix.scp.writesender.codec.EnrolleeSelectBinaryCodec;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of batch by sender per codec, record key and envelope, producer
+ * acknowledges every record right away without keeping it, so only encoding,
+ * packing and callback handling are measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaChangeSenderBenchmark {
+    private static final int PARTITIONS = 8;
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"JSON", "BINARY"})
+    public CodecType codec;
+    @Param({"NONE", "USER"})
+    public RecordKey key;
+    /**
+     * Compression of envelope, off sends every change as separate record
+     */
+    @Param({"off", "NONE", "LZ4", "ZSTD"})
+    public String envelope;
+
+    private List<EnrolleeSelect> changes;
+    private KafkaChangeSender<EnrolleeSelect> sender;
+
+    @Setup
+    public void setUp() {
+        changes = BenchmarkData.selects(BATCH_SIZE);
+        ChangeCodec<EnrolleeSelect> c = switch (codec) {
+            case JSON -> new JsonChangeCodec<>(BenchmarkData.mapper(), EnrolleeSelect.class);
+            case BINARY -> new EnrolleeSelectBinaryCodec();
+        };
+        var e = "off".equals(envelope)
+                ? null
+                : new EnvelopeConfig(256, 256 * 1024, EnvelopeCompression.valueOf(envelope));
+        var producer = new AcknowledgingProducer();
+        var template = new KafkaTemplate<String, byte[]>(() -> producer);
+        sender = new KafkaChangeSender<>(template, c, "select-direct-", key.getExtractor(), e);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<EnrolleeSelect> send() {
+        return sender.send(changes, 0);
+    }
+
+    /**
+     * Completes every record on calling thread, unlike {@link MockProducer}
+     * with auto complete it does not keep history of sent records
+     */
+    private static final class AcknowledgingProducer extends MockProducer<String, byte[]> {
+        AcknowledgingProducer() {
+            super(true, new StringSerializer(), new ByteArraySerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+            int partition = record.partition() == null ? 0 : record.partition();
+            var metadata = new RecordMetadata(new TopicPartition(record.topic(), partition), 0, 0,
+                    RecordBatch.NO_TIMESTAMP, 0, record.value().length);
+            if (callback != null) {
+                callback.onCompletion(metadata, null);
+            }
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        @Override
+        public synchronized List<PartitionInfo> partitionsFor(String topic) {
+            List<PartitionInfo> r = new ArrayList<>(PARTITIONS);
+            for (int i = 0; i < PARTITIONS; i++) {
+                r.add(new PartitionInfo(topic, i, Node.noNode(), new Node[0], new Node[0]));
+            }
+            return r;
+        }
+
+        @Override
+        public void close(Duration timeout) {
+            // template closes producer after every send, this one is shared
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.lastrix.scp.benchmarks;
+
+import com.lastrix.scp.sender.MpscRingBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of worker context under contention: fetch and retry threads offer
+ * changes while single worker drains them. Offers to full buffer are cheap
+ * failures, so throughput of offer methods is not the rate of changes passed,
+ * compare offered and drained counters instead.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MpscRingBufferBenchmark {
+    private static final Object CHANGE = new Object();
+
+    @Param({"1024", "65536"})
+    public int capacity;
+
+    @Param({"256"})
+    public int maxProcessingChunk;
+
+    private MpscRingBuffer<Object> buffer;
+
+    @Setup
+    public void setUp() {
+        buffer = new MpscRingBuffer<>(capacity);
+    }
+
+    /**
+     * Offers that took a slot and those rejected by full buffer
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Offers {
+        public long offered;
+        public long full;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = 0;
+            full = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Drain {
+        public long drained;
+        final List<Object> list = new ArrayList<>();
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            drained = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean offer(Offers o) {
+        return offer0(o);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int drain(Drain d) {
+        return drain0(d);
+    }
+
+    @Benchmark
+    @Group("singleProducer")
+    @GroupThreads(1)
+    public boolean offerSingle(Offers o) {
+        return offer0(o);
+    }
+
+    @Benchmark
+    @Group("singleProducer")
+    @GroupThreads(1)
+    public int drainSingle(Drain d) {
+        return drain0(d);
+    }
+
+    private boolean offer0(Offers o) {
+        if (buffer.offer(CHANGE)) {
+            o.offered++;
+            return true;
+        }
+        o.full++;
+        return false;
+    }
+
+    private int drain0(Drain d) {
+        d.list.clear();
+        int n = buffer.drainTo(d.list, maxProcessingChunk);
+        d.drained += n;
+        return n;
+    }
+}
@@ -0,0 +1,33 @@
+package com.lastrix.scp.receiver;
+
+import java.util.Arrays;
+
+/**
+ * Converts message payload to change
+ *
+ * @param <T>
+ */
+@FunctionalInterface
+public interface ChangeDecoder<T> {
+    /**
+     * Decode change from payload
+     *
+     * @param data the message payload
+     * @return decoded change or null if message should be skipped
+     * @throws IllegalArgumentException if payload is malformed
+     */
+    T decode(byte[] data);
+
+    /**
+     * Decode change from part of array, used for changes packed into envelope
+     *
+     * @param data   the array holding payload
+     * @param offset the payload start
+     * @param length the payload length
+     * @return decoded change or null if message should be skipped
+     * @throws IllegalArgumentException if payload is malformed
+     */
+    default T decode(byte[] data, int offset, int length) {
+        return decode(Arrays.copyOfRange(data, offset, offset + length));
+    }
+}
@@ -1,5 +1,13 @@
 package com.lastrix.scp.receiver;
 
+import com.lastrix.scp.common.ExecutionMode;
+import com.lastrix.scp.common.FingerprintSet;
+import com.lastrix.scp.common.IdHasher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Timer;
 import org.slf4j.Logger;
@@ -8,26 +16,26 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.PreDestroy;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
 
-public abstract class ChangeReceiverService<T> {
+public abstract class ChangeReceiverService<T> implements MeterBinder {
     private static final Logger log = LoggerFactory.getLogger(ChangeReceiverService.class);
     /**
      * How many message identifiers we should hold in our cache to prevent
      * duplicate messages registered in message queues
      */
-    private static final int ID_SET_MAX_SIZE = 65535;
+    public static final int DEFAULT_DEDUP_CAPACITY = 1 << 20;
     public static final long DURATION_SINK_WAIT = Duration.ofMillis(1000).toNanos();
     public static final Duration RECEIVE_TIMEOUT = Duration.ofSeconds(1);
     public static final Duration DURATION_ONE_SECOND = Duration.ofSeconds(1);
 
-    private final Set<Object> idSet = Collections.newSetFromMap(new LinkedHashMap<>(ID_SET_MAX_SIZE + 1) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
-            return size() > ID_SET_MAX_SIZE;
-        }
-    });
+    /**
+     * Fingerprints of committed messages, guarded by queue
+     */
+    private final FingerprintSet idSet;
+    private final IdHasher idHasher = new IdHasher();
     private final ChangeSinkService<T> sink;
     private final ChangeReceiver<T> receiver;
     private final Thread sinkThread;
@@ -45,22 +53,37 @@ public abstract class ChangeReceiverService<T> {
     private final Timer timer = Time.SYSTEM.timer(DURATION_ONE_SECOND);
 
     private volatile boolean running = true;
+    /**
+     * Meters are null and record nothing till service is bound to registry
+     */
+    private volatile io.micrometer.core.instrument.Timer sinkTimer;
+    private volatile io.micrometer.core.instrument.Timer receiverCommitTimer;
+    private volatile DistributionSummary sinkBatchSummary;
+    private volatile Counter duplicateCounter;
     private final int sinkChunkSize;
     private final int maxSinkChunkSize;
     private final int receiveBufferSize;
     private final int receiveBufferSizeHalf;
 
     protected ChangeReceiverService(ChangeSinkService<T> sink, ChangeReceiver<T> receiver, int sinkChunkSize, int maxSinkChunkSize, int receiveBufferSize) {
+        this(sink, receiver, sinkChunkSize, maxSinkChunkSize, receiveBufferSize, DEFAULT_DEDUP_CAPACITY);
+    }
+
+    protected ChangeReceiverService(ChangeSinkService<T> sink, ChangeReceiver<T> receiver, int sinkChunkSize, int maxSinkChunkSize, int receiveBufferSize, int dedupCapacity) {
+        this(sink, receiver, sinkChunkSize, maxSinkChunkSize, receiveBufferSize, dedupCapacity, ExecutionMode.PLATFORM);
+    }
+
+    protected ChangeReceiverService(ChangeSinkService<T> sink, ChangeReceiver<T> receiver, int sinkChunkSize, int maxSinkChunkSize, int receiveBufferSize, int dedupCapacity, ExecutionMode executionMode) {
+        this.idSet = new FingerprintSet(dedupCapacity);
         this.sink = sink;
         this.receiver = receiver;
         this.sinkChunkSize = sinkChunkSize;
         this.maxSinkChunkSize = maxSinkChunkSize;
         this.receiveBufferSize = receiveBufferSize;
         this.receiveBufferSizeHalf = receiveBufferSize / 2;
-        sinkThread = new Thread(this::doSink, "change-sink-thread");
-        sinkThread.setDaemon(true);
-        receiverThread = new Thread(this::doReceive, "change-receive-thread");
-        receiverThread.setDaemon(true);
+        // blocking kafka and database calls do not hold platform threads in virtual mode
+        sinkThread = executionMode.newThread(this::doSink, "change-sink-thread");
+        receiverThread = executionMode.newThread(this::doReceive, "change-receive-thread");
         sinkThread.start();
         receiverThread.start();
     }
@@ -68,9 +91,60 @@ public abstract class ChangeReceiverService<T> {
     @PreDestroy
     public void preDestroy() {
         running = false;
+        // threads of service do not outlive it
+        LockSupport.unpark(sinkThread);
+        LockSupport.unpark(receiverThread);
+        join(sinkThread);
+        join(receiverThread);
     }
 
-    protected abstract Object idOf(T c);
+    private static void join(Thread t) {
+        try {
+            t.join(Duration.ofSeconds(5).toMillis());
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        sinkTimer = io.micrometer.core.instrument.Timer.builder("scp.receiver.sink")
+                .description("Commit of received changes to sink")
+                .register(registry);
+        receiverCommitTimer = io.micrometer.core.instrument.Timer.builder("scp.receiver.commit")
+                .description("Commit of consumed position to broker")
+                .register(registry);
+        sinkBatchSummary = DistributionSummary.builder("scp.receiver.sink.batch")
+                .description("Changes committed to sink at once")
+                .baseUnit("changes")
+                .register(registry);
+        duplicateCounter = Counter.builder("scp.receiver.duplicates")
+                .description("Received changes skipped as already committed")
+                .baseUnit("changes")
+                .register(registry);
+        Gauge.builder("scp.receiver.queue", this, ChangeReceiverService::getMessageQueueSize)
+                .description("Received changes waiting for sink")
+                .baseUnit("changes")
+                .register(registry);
+    }
+
+    public int getMessageQueueSize() {
+        synchronized (queue) {
+            return messageQueueSize;
+        }
+    }
+
+    private static void record(io.micrometer.core.instrument.Timer timer, long start) {
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Put identifier parts of message into hasher, messages with same
+     * identifier are committed only once
+     */
+    protected abstract void idOf(T c, IdHasher id);
 
     private void doReceive() {
         while (running) {
@@ -112,7 +186,9 @@ public abstract class ChangeReceiverService<T> {
     private void commitReceive() {
         Object o = commitSlab.get();
         if (o != null) {
+            long start = System.nanoTime();
             receiver.commit(o);
+            record(receiverCommitTimer, start);
             // replace that value with null to prevent us
             // from sending same commit again
             commitSlab.compareAndSet(o, null);
@@ -146,7 +222,8 @@ public abstract class ChangeReceiverService<T> {
                     // there is no need to commit same messages
                     // again, so we skip them and reduce our
                     // storage strain significantly
-                    if (idSet.add(idOf(c))) list.add(c);
+                    idOf(c, idHasher.reset());
+                    if (idSet.add(idHasher)) list.add(c);
                 }
                 // when update is done we should send this object
                 // back to receiver in order to commit state
@@ -159,7 +236,17 @@ public abstract class ChangeReceiverService<T> {
                 processed += chunk.changes().size();
             }
         }
+        long start = System.nanoTime();
         sink.commit(list);
+        record(sinkTimer, start);
+        var summary = sinkBatchSummary;
+        if (summary != null) {
+            summary.record(list.size());
+        }
+        var duplicates = duplicateCounter;
+        if (duplicates != null && processed > list.size()) {
+            duplicates.increment(processed - list.size());
+        }
         commitSlab.set(slab);
         synchronized (queue) {
             messageQueueSize -= processed;
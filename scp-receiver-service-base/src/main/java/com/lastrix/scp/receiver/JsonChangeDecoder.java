@@ -0,0 +1,38 @@
+package com.lastrix.scp.receiver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Decoder reading json directly from payload bytes
+ *
+ * @param <T>
+ */
+public class JsonChangeDecoder<T> implements ChangeDecoder<T> {
+    private final ObjectMapper mapper;
+    private final Class<T> type;
+
+    public JsonChangeDecoder(ObjectMapper mapper, Class<T> type) {
+        this.mapper = mapper;
+        this.type = type;
+    }
+
+    @Override
+    public T decode(byte[] data) {
+        try {
+            return mapper.readValue(data, type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to convert value from json", e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length) {
+        try {
+            return mapper.readValue(data, offset, length, type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to convert value from json", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.lastrix.scp.receiver;
 
+import com.lastrix.scp.common.ChangeEnvelope;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
@@ -13,17 +14,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
 public class KafkaChangeReceiver<T> implements ChangeReceiver<T> {
     private static final Logger log = LoggerFactory.getLogger(KafkaChangeReceiver.class);
 
-    private final Consumer<String, String> consumer;
-    private final Function<String, T> parser;
+    private final Consumer<String, byte[]> consumer;
+    private final ChangeDecoder<T> decoder;
 
-    public KafkaChangeReceiver(Consumer<String, String> consumer, Function<String, T> parser, String topic) {
+    public KafkaChangeReceiver(Consumer<String, byte[]> consumer, ChangeDecoder<T> decoder, String topic) {
         this.consumer = consumer;
-        this.parser = parser;
+        this.decoder = decoder;
         consumer.subscribe(List.of(topic));
     }
 
@@ -37,11 +37,16 @@ public class KafkaChangeReceiver<T> implements ChangeReceiver<T> {
         while (timer.notExpired() && changes.size() < maxSize) {
             timer.update();
             var rs = consumer.poll(timer.remainingMs());
-            for (ConsumerRecord<String, String> r : rs) {
-                var v = parser.apply(r.value());
-                // parser may fail to parse value and return null
-                if (v != null) {
-                    changes.add(v);
+            for (ConsumerRecord<String, byte[]> r : rs) {
+                if (r.headers().lastHeader(ChangeEnvelope.HEADER) != null) {
+                    // envelope is expanded into changes it holds
+                    unpack(r, changes);
+                } else {
+                    var v = decode(r);
+                    // decoder may fail to decode value and return null
+                    if (v != null) {
+                        changes.add(v);
+                    }
                 }
                 // for each message we must update our slab, that holds info
                 // about each partition offset for commit
@@ -51,6 +56,34 @@ public class KafkaChangeReceiver<T> implements ChangeReceiver<T> {
         return new ChangeChunk<>(changes, new Slab(slab));
     }
 
+    private T decode(ConsumerRecord<String, byte[]> r) {
+        try {
+            return r.value() == null ? null : decoder.decode(r.value());
+        } catch (RuntimeException e) {
+            // malformed message should not block whole partition
+            log.error("Failed to decode message at {}-{}:{}", r.topic(), r.partition(), r.offset(), e);
+            return null;
+        }
+    }
+
+    private void unpack(ConsumerRecord<String, byte[]> r, List<T> changes) {
+        try {
+            ChangeEnvelope.unpack(r.value(), (data, offset, length) -> {
+                try {
+                    var v = decoder.decode(data, offset, length);
+                    if (v != null) {
+                        changes.add(v);
+                    }
+                } catch (RuntimeException e) {
+                    // other changes of envelope are still usable
+                    log.error("Failed to decode change in envelope at {}-{}:{}", r.topic(), r.partition(), r.offset(), e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to unpack envelope at {}-{}:{}", r.topic(), r.partition(), r.offset(), e);
+        }
+    }
+
     @Override
     public void commit(Object slab) {
         if (slab instanceof Slab) {
@@ -0,0 +1,108 @@
+package com.lastrix.scp.sender;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for encoding changes. Instances are reused between
+ * messages, so encoding does not allocate anything except final byte array.
+ * Also provides primitives for compact binary formats: fixed longs and
+ * zigzag varints.
+ */
+public final class ChangeBuffer extends OutputStream {
+    private byte[] buf;
+    private int size;
+
+    public ChangeBuffer(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, size, len);
+        size += len;
+    }
+
+    public void writeInt(int v) {
+        ensureCapacity(Integer.BYTES);
+        putInt(size, v);
+        size += Integer.BYTES;
+    }
+
+    /**
+     * Overwrite already written int at position, used for length prefixes
+     */
+    public void putInt(int position, int v) {
+        for (int i = 0; i < Integer.BYTES; i++) {
+            buf[position + i] = (byte) (v >>> (24 - 8 * i));
+        }
+    }
+
+    public void writeLong(long v) {
+        ensureCapacity(Long.BYTES);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[size++] = (byte) (v >>> shift);
+        }
+    }
+
+    /**
+     * Write int as zigzag varint, small values of any sign take single byte
+     */
+    public void writeVarInt(int v) {
+        ensureCapacity(5);
+        int z = (v << 1) ^ (v >> 31);
+        while ((z & ~0x7F) != 0) {
+            buf[size++] = (byte) ((z & 0x7F) | 0x80);
+            z >>>= 7;
+        }
+        buf[size++] = (byte) z;
+    }
+
+    public static int readVarInt(ByteBuffer b) {
+        int z = 0;
+        int shift = 0;
+        byte v;
+        do {
+            if (shift > 28) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            v = b.get();
+            z |= (v & 0x7F) << shift;
+            shift += 7;
+        } while ((v & 0x80) != 0);
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Backing array, valid only till next write
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int n) {
+        if (size + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.lastrix.scp.sender;
+
+/**
+ * Converts changes to message payload and back
+ *
+ * @param <T>
+ */
+public interface ChangeCodec<T> {
+    /**
+     * Append encoded change to buffer
+     *
+     * @param change the change to encode
+     * @param out    the buffer to write into
+     */
+    void encode(T change, ChangeBuffer out);
+
+    /**
+     * Decode change previously encoded by {@link #encode(Object, ChangeBuffer)}
+     *
+     * @param data   the array holding encoded change
+     * @param offset the offset of encoded change
+     * @param length the length of encoded change
+     * @return decoded change
+     */
+    T decode(byte[] data, int offset, int length);
+}
@@ -0,0 +1,18 @@
+package com.lastrix.scp.sender;
+
+import java.util.List;
+
+/**
+ * Single page of changes read from {@link ChangeSourceService}.
+ * The cursor is opaque for callers and should be passed back to source
+ * in order to read next page.
+ *
+ * @param changes the changes read
+ * @param cursor  position after last change of this page
+ * @param <T>
+ */
+public record ChangePage<T>(List<T> changes, Object cursor) {
+    public boolean isEmpty() {
+        return changes == null || changes.isEmpty();
+    }
+}
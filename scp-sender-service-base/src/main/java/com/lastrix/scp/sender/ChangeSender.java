@@ -1,7 +1,22 @@
 package com.lastrix.scp.sender;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 public interface ChangeSender<T> {
     List<T> send(List<T> changes, int channel);
+
+    /**
+     * Send changes without waiting for acknowledgement, stage completes with
+     * changes that were successfully sent, others should be sent again.
+     * Default implementation sends synchronously on calling thread.
+     *
+     * @param changes the changes to send
+     * @param channel the channel to send to
+     * @return stage completed once every change is either sent or failed
+     */
+    default CompletionStage<List<T>> sendAsync(List<T> changes, int channel) {
+        return CompletableFuture.completedFuture(send(changes, channel));
+    }
 }
@@ -0,0 +1,277 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.ExecutionMode;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Holds settings of {@link ChangeSenderService}
+ */
+public class ChangeSenderConfig {
+    /**
+     * How many threads are used for sending messages
+     */
+    private int parallelism = 2;
+    /**
+     * How many channels (topics) served by sender
+     */
+    private int channels = 1;
+    /**
+     * Channels are not served from start, instead they are added and removed
+     * at runtime as ownership changes, channels still limits their count
+     */
+    private boolean dynamicChannels;
+    /**
+     * Quantum of deficit round-robin: how many messages channel of weight 1
+     * may send before other channels get their chance
+     */
+    private int maxProcessingChunk = 256;
+    /**
+     * Weights of channels, channel gets weight times quantum per round,
+     * channels missing here have weight 1
+     */
+    private Map<Integer, Integer> channelWeights = Map.of();
+    /**
+     * Priority lanes of every channel, see {@link ChangeSenderService#priorityOf(Object)}
+     */
+    private int lanes = 1;
+    /**
+     * Batches lane with messages may be skipped in a row before it goes first
+     */
+    private int maxLaneSkips = 4;
+    /**
+     * Send only the latest message of every batch superseding others, see
+     * {@link ChangeSenderService#supersedeKeyOf(Object)}
+     */
+    private boolean coalesce;
+    /**
+     * Interval between source polls, if source supports notifications,
+     * then this is only a fallback
+     */
+    private Duration pollInterval = Duration.ofMillis(200);
+    /**
+     * How many sent messages committed to source in single transaction
+     */
+    private int commitChunkSize = 32;
+    /**
+     * How long commit worker waits for more sent messages before commit,
+     * so they may be committed in single transaction
+     */
+    private Duration commitLinger = Duration.ofMillis(5);
+    /**
+     * Keep next page query in flight while previous page is routed to workers,
+     * should be disabled for sources reading all changes by {@link ChangeSourceService#stream}
+     */
+    private boolean prefetch = true;
+    /**
+     * How many batches single channel may have sent, but not yet acknowledged.
+     * Once batch fails, later batches in flight are sent again after it, so order
+     * of messages is kept, but consumers may see them twice, 1 avoids that
+     */
+    private int maxInFlightBatches = 4;
+    /**
+     * Delay before first retry of failed changes, doubled for every consecutive failure
+     */
+    private Duration retryInitialDelay = Duration.ofMillis(100);
+    /**
+     * Upper bound of retry delay
+     */
+    private Duration retryMaxDelay = Duration.ofSeconds(15);
+    /**
+     * How many consecutive failures park channel till retry delay passes
+     */
+    private int breakerThreshold = 3;
+    /**
+     * How many identifiers of registered messages are remembered to skip
+     * duplicates, about 24 bytes of heap each for power of two capacity
+     */
+    private int dedupCapacity = 1 << 20;
+    /**
+     * Threads used by sender, virtual mode falls back to platform
+     * threads on runtimes without virtual threads
+     */
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    /**
+     * File for changes sent, but not yet committed, they are committed
+     * without sending after restart, null disables snapshots
+     */
+    private Path snapshotPath;
+    /**
+     * How often snapshot is written
+     */
+    private Duration snapshotInterval = Duration.ofSeconds(1);
+    /**
+     * Older snapshot is ignored at startup
+     */
+    private Duration snapshotMaxAge = Duration.ofMinutes(5);
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+
+    public boolean isDynamicChannels() {
+        return dynamicChannels;
+    }
+
+    public void setDynamicChannels(boolean dynamicChannels) {
+        this.dynamicChannels = dynamicChannels;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public void setLanes(int lanes) {
+        this.lanes = lanes;
+    }
+
+    public int getMaxLaneSkips() {
+        return maxLaneSkips;
+    }
+
+    public void setMaxLaneSkips(int maxLaneSkips) {
+        this.maxLaneSkips = maxLaneSkips;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public int getMaxProcessingChunk() {
+        return maxProcessingChunk;
+    }
+
+    public void setMaxProcessingChunk(int maxProcessingChunk) {
+        this.maxProcessingChunk = maxProcessingChunk;
+    }
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getCommitChunkSize() {
+        return commitChunkSize;
+    }
+
+    public void setCommitChunkSize(int commitChunkSize) {
+        this.commitChunkSize = commitChunkSize;
+    }
+
+    public Duration getCommitLinger() {
+        return commitLinger;
+    }
+
+    public void setCommitLinger(Duration commitLinger) {
+        this.commitLinger = commitLinger;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    public Duration getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    public void setRetryInitialDelay(Duration retryInitialDelay) {
+        this.retryInitialDelay = retryInitialDelay;
+    }
+
+    public Duration getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    public void setRetryMaxDelay(Duration retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    public int getBreakerThreshold() {
+        return breakerThreshold;
+    }
+
+    public void setBreakerThreshold(int breakerThreshold) {
+        this.breakerThreshold = breakerThreshold;
+    }
+
+    public int getDedupCapacity() {
+        return dedupCapacity;
+    }
+
+    public void setDedupCapacity(int dedupCapacity) {
+        this.dedupCapacity = dedupCapacity;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public Map<Integer, Integer> getChannelWeights() {
+        return channelWeights;
+    }
+
+    public void setChannelWeights(Map<Integer, Integer> channelWeights) {
+        this.channelWeights = channelWeights;
+    }
+
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public void setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public Duration getSnapshotMaxAge() {
+        return snapshotMaxAge;
+    }
+
+    public void setSnapshotMaxAge(Duration snapshotMaxAge) {
+        this.snapshotMaxAge = snapshotMaxAge;
+    }
+}
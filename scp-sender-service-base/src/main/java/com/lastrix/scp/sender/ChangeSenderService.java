@@ -1,22 +1,40 @@
 package com.lastrix.scp.sender;
 
+import com.lastrix.scp.common.ExecutionMode;
+import com.lastrix.scp.common.FingerprintSet;
+import com.lastrix.scp.common.IdHasher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-public abstract class ChangeSenderService<T> {
+public abstract class ChangeSenderService<T> implements MeterBinder {
     private static final Logger log = LoggerFactory.getLogger(ChangeSenderService.class);
-    /**
-     * How many message identifiers we should hold in our cache to prevent
-     * duplicate messages registered in message queues
-     */
-    private static final int ID_SET_MAX_SIZE = 65535;
     /**
      * The maximum number of messages planned to be sent
      */
@@ -25,6 +43,23 @@ public abstract class ChangeSenderService<T> {
      * If buffer goes below this value - fetcher should read source again
      */
     private static final int MAX_FETCH_HALF = MAX_FETCH / 2;
+    /**
+     * How many fetched messages collected before handing them to workers
+     */
+    private static final int REGISTER_FLUSH_SIZE = 128;
+    /**
+     * How many messages sent in single batch
+     */
+    private static final int SEND_BATCH_SIZE = 128;
+    /**
+     * Channel queue capacity, fetcher never holds more than MAX_FETCH messages
+     * plus a page, so queues are not expected to be full
+     */
+    private static final int CHANNEL_QUEUE_SIZE = 2 * MAX_FETCH;
+    /**
+     * Percentiles published by lag timers
+     */
+    public static final double[] LAG_PERCENTILES = {0.5, 0.9, 0.99, 0.999};
     private final ChangeSourceService<T> source;
     private final ChangeSender<T> sender;
     /**
@@ -36,67 +71,253 @@ public abstract class ChangeSenderService<T> {
      */
     private final Thread fetchThread;
     /**
-     * This pool is used to run message sending jobs
+     * Commits sent messages to source on its own thread, so commits and fetches
+     * do not wait for each other
      */
-    private final ForkJoinPool workPool;
+    private final GroupCommitWorker<T> committer;
+    /**
+     * Runs page queries while fetch thread routes previous page, null if
+     * pages are read by source itself through {@link ChangeSourceService#stream}
+     */
+    private final ExecutorService prefetchExecutor;
+    /**
+     * This pool is used to run message sending jobs, in virtual mode
+     * every job gets its own virtual thread
+     */
+    private final ExecutorService workPool;
+    /**
+     * Threads of this service
+     */
+    private final ExecutionMode executionMode;
+    /**
+     * Delays retries of failed changes and wakes up parked channels,
+     * so pool threads never sleep because of failures
+     */
+    private final ScheduledExecutorService retryScheduler;
+    private final ChangeSenderConfig config;
     /**
      * Holds information about channels and their respective topics
      */
-    private final Map<Integer, WorkerContext> map = new HashMap<>();
+    private final Map<Integer, WorkerContext> map = new ConcurrentHashMap<>();
     /**
-     * Nanosecond interval between fetcher thread executions
+     * Changes dropped by removed channels, fetcher forgets them, so they
+     * are fetched again if channel comes back
      */
-    private final long sleepTime = Duration.ofMillis(200).toNanos();
+    private final Queue<T> released = new ConcurrentLinkedQueue<>();
     /**
-     * This queue contains messages that should be persisted in database.
-     * If for some reason we won't be able to store this information, then next restart
-     * we'll send those messages again
+     * Nanosecond interval between fetcher thread executions, if source
+     * supports notifications, then this is only a fallback
      */
-    private final Queue<T> commitQueue = new ConcurrentLinkedQueue<>();
+    private final long sleepTime;
     /**
-     * Limit the amount of messages sent to single topic
+     * How many messages channel of weight 1 may send per round, before
+     * other channels get their turn
      */
-    private final int maxProcessingChunk;
+    private final int quantum;
     /**
-     * How many messages we collected in buffers so far
+     * Channels having messages to send and room in their window, in round order,
+     * each channel is present at most once
      */
-    private int fetchCount = 0;
+    private final Queue<WorkerContext> active = new ConcurrentLinkedQueue<>();
     /**
-     * This collection works similar to LRU cache, but without access order check in order
-     * to prevent undesired operations with structure (performance requirement)
+     * How many jobs serve active channels right now
      */
-    private final Set<Object> idSet = Collections.newSetFromMap(new LinkedHashMap<>(ID_SET_MAX_SIZE + 1) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
-            return size() > ID_SET_MAX_SIZE;
-        }
-    });
+    private final AtomicInteger servers = new AtomicInteger();
+    private final int maxServers;
+    /**
+     * Limit of batches waiting for acknowledgement per channel
+     */
+    private final int maxInFlightBatches;
+    /**
+     * Priority lanes of every channel and how many batches lane may be skipped
+     */
+    private final int laneCount;
+    private final int maxLaneSkips;
+    /**
+     * Send only the latest of messages superseding each other
+     */
+    private final boolean coalesce;
+    /**
+     * How many messages we collected in buffers so far, incremented by fetch
+     * thread and decremented by commit thread
+     */
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    /**
+     * Messages registered by fetcher, but not yet handed to workers, by channel
+     */
+    private final Map<Integer, List<T>> registered = new HashMap<>();
+    private int registeredCount = 0;
+    /**
+     * Messages read by fetcher, but not taken, handed back to source on flush
+     */
+    private final List<T> skipped = new ArrayList<>();
+    /**
+     * Fingerprints of registered messages to prevent duplicate messages registered
+     * in message queues, the oldest ones are evicted first, used by fetch thread only
+     */
+    private final FingerprintSet idSet;
+    private final IdHasher idHasher = new IdHasher();
+    /**
+     * Sent but not committed changes kept on disk, null if disabled
+     */
+    private final PendingSnapshot<T> snapshot;
+    private volatile boolean snapshotEmpty;
+    /**
+     * Writes snapshot on its own thread, so file sync never delays retries, null if disabled
+     */
+    private final ScheduledExecutorService snapshotScheduler;
+    /**
+     * Registry service is bound to, meters are null and record nothing till then
+     */
+    private volatile MeterRegistry registry;
+    private volatile Timer fetchTimer;
+    private volatile Timer commitTimer;
+    private volatile Timer sendTimer;
+    private volatile Counter sentCounter;
+    private volatile Counter failedCounter;
+
+    protected ChangeSenderService(ChangeSourceService<T> source, ChangeSender<T> sender, ChangeSenderConfig config) {
+        this(source, sender, config, null);
+    }
 
-    protected ChangeSenderService(ChangeSourceService<T> source, ChangeSender<T> sender, int parallelism, int channels, int maxProcessingChunk) {
+    /**
+     * @param codec encodes changes for snapshot, snapshot is disabled if null
+     */
+    protected ChangeSenderService(ChangeSourceService<T> source, ChangeSender<T> sender, ChangeSenderConfig config, ChangeCodec<T> codec) {
         this.source = source;
         this.sender = sender;
-        this.maxProcessingChunk = maxProcessingChunk;
-        workPool = new ForkJoinPool(parallelism);
-        for (int i = 0; i < channels; i++) {
-            map.put(i, new WorkerContext(i));
+        this.quantum = Math.max(1, config.getMaxProcessingChunk());
+        this.maxInFlightBatches = Math.max(1, config.getMaxInFlightBatches());
+        this.laneCount = Math.min(Long.SIZE, Math.max(1, config.getLanes()));
+        this.maxLaneSkips = Math.max(1, config.getMaxLaneSkips());
+        this.coalesce = config.isCoalesce();
+        this.sleepTime = config.getPollInterval().toNanos();
+        this.config = config;
+        this.idSet = new FingerprintSet(config.getDedupCapacity());
+        this.executionMode = config.getExecutionMode().effective();
+        if (executionMode != config.getExecutionMode()) {
+            log.warn("Execution mode {} is not supported by runtime, using {}", config.getExecutionMode(), executionMode);
+        }
+        workPool = executionMode.newTaskExecutor(config.getParallelism(), "change-sender-worker");
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> newDaemonThread(r, "change-sender-retry-thread"));
+        if (!config.isDynamicChannels()) {
+            for (int i = 0; i < config.getChannels(); i++) {
+                addChannel(i);
+            }
+        }
+        // virtual threads are cheap, so every channel may be served at once
+        maxServers = executionMode == ExecutionMode.VIRTUAL ? Math.max(1, config.getChannels()) : config.getParallelism();
+        prefetchExecutor = config.isPrefetch()
+                ? Executors.newSingleThreadExecutor(r -> newDaemonThread(r, "change-sender-prefetch-thread"))
+                : null;
+        committer = new GroupCommitWorker<>(this::commit, config.getCommitChunkSize(), config.getCommitLinger(), config.getPollInterval(), executionMode);
+        snapshot = codec == null || config.getSnapshotPath() == null
+                ? null
+                : new PendingSnapshot<>(config.getSnapshotPath(), codec, config.getSnapshotMaxAge());
+        if (snapshot != null) {
+            restoreSnapshot();
+            long interval = config.getSnapshotInterval().toMillis();
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> newDaemonThread(r, "change-sender-snapshot-thread"));
+            snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotScheduler = null;
         }
-        fetchThread = new Thread(this::doBackground, "change-sender-fetch-thread");
-        fetchThread.setDaemon(true);
+        fetchThread = newDaemonThread(this::doBackground, "change-sender-fetch-thread");
         fetchThread.start();
+        source.subscribe(this::notifyFetcher);
+    }
+
+    private Thread newDaemonThread(Runnable r, String name) {
+        return executionMode.newThread(r, name);
     }
 
     @PreDestroy
     public void preDestroy() {
         running = false;
+        // threads of service do not outlive it
+        notifyFetcher();
+        join(fetchThread);
         workPool.shutdown();
+        retryScheduler.shutdown();
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+        }
+        awaitTermination(workPool, "Sending jobs");
+        awaitInFlight();
+        // everything sent so far should be committed, otherwise
+        // it will be sent again after restart
+        committer.close();
+        if (snapshot != null) {
+            // periodic write must not race with the last one
+            snapshotScheduler.shutdown();
+            awaitTermination(snapshotScheduler, "Snapshot writes");
+            // empty unless commit failed on close
+            writeSnapshot();
+        }
+    }
+
+    private void restoreSnapshot() {
+        // changes from snapshot were acknowledged by kafka before shutdown,
+        // so they are committed without sending and skipped by fetch, sources
+        // returning them again (replication replays them) get them through skip;
+        // some may be confirmed since snapshot was written, source commit must
+        // leave such changes as they are
+        var changes = snapshot.read().stream().filter(this::isNew).toList();
+        if (changes.isEmpty()) {
+            return;
+        }
+        fetchCount.addAndGet(changes.size());
+        committer.addAll(changes);
+        log.info("Restored {} sent changes from snapshot", changes.size());
+    }
+
+    private void writeSnapshot() {
+        var changes = committer.snapshot();
+        if (changes.isEmpty() && snapshotEmpty) {
+            // idle service does not rewrite file
+            return;
+        }
+        try {
+            snapshot.write(changes);
+            snapshotEmpty = changes.isEmpty();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to write snapshot", e);
+        }
+    }
+
+    private static void join(Thread t) {
+        try {
+            t.join(Duration.ofSeconds(5).toMillis());
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor, String jobs) {
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("{} are still running after shutdown", jobs);
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitInFlight() {
+        // acknowledged batches should reach committer before it is closed
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (map.values().stream().anyMatch(WorkerContext::hasInFlight) && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Duration.ofMillis(10).toNanos());
+        }
     }
 
     public void doBackground() {
         while (running) {
             try {
-                commit();
+                forgetReleased();
                 int i = 10;
-                // try fetching 10 times if possible, we must commit afterwards
+                // try fetching 10 times if possible, then give a chance
+                // for commits to free some space in buffers
                 while (running && i > 0 && shouldFetch() && fetch()) {
                     i--;
                 }
@@ -112,62 +333,365 @@ public abstract class ChangeSenderService<T> {
         // start fetching only if we reach certain
         // margin in our buffers
         // we should not strain our database too often
-        return fetchCount <= MAX_FETCH_HALF;
+        return fetchCount.get() <= MAX_FETCH_HALF;
+    }
+
+    /**
+     * Service time of channel so far, how long pool threads were busy sending its messages
+     */
+    public Duration getServiceTime(int channel) {
+        var c = map.get(channel);
+        return c == null ? Duration.ZERO : Duration.ofNanos(c.serviceNanos);
+    }
+
+    public Set<Integer> getChannels() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        fetchTimer = Timer.builder("scp.sender.fetch")
+                .description("Source pass registering changes")
+                .register(registry);
+        commitTimer = Timer.builder("scp.sender.commit")
+                .description("Commit of sent changes to source")
+                .register(registry);
+        sendTimer = Timer.builder("scp.sender.send")
+                .description("Time from send of batch till its acknowledgement")
+                .register(registry);
+        sentCounter = Counter.builder("scp.sender.sent")
+                .description("Changes acknowledged by broker")
+                .baseUnit("changes")
+                .register(registry);
+        failedCounter = Counter.builder("scp.sender.send.failed")
+                .description("Changes not acknowledged by broker, they are retried")
+                .baseUnit("changes")
+                .register(registry);
+        Gauge.builder("scp.sender.fetched", fetchCount, AtomicInteger::get)
+                .description("Changes fetched, but not yet committed")
+                .baseUnit("changes")
+                .register(registry);
+        // channel added from now on binds itself
+        this.registry = registry;
+        map.values().forEach(c -> c.bindTo(registry));
+    }
+
+    private static void record(Timer timer, long start) {
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void increment(Counter counter, int amount) {
+        if (counter != null && amount > 0) {
+            counter.increment(amount);
+        }
+    }
+
+    /**
+     * Start serving channel, does nothing if channel is already served
+     */
+    public void addChannel(int channel) {
+        var context = map.computeIfAbsent(channel, c -> {
+            log.info("Channel {} added", c);
+            return new WorkerContext(c, config.getChannelWeights().getOrDefault(c, 1));
+        });
+        var r = registry;
+        if (r != null) {
+            context.bindTo(r);
+        }
+        // changes of channel may be waiting in source
+        notifyFetcher();
+    }
+
+    /**
+     * Stop serving channel, changes waiting in its queue are dropped without
+     * commit, batches in flight are committed as usual once acknowledged
+     */
+    public void removeChannel(int channel) {
+        var c = map.remove(channel);
+        if (c != null) {
+            log.info("Channel {} removed", channel);
+            c.close();
+            var r = registry;
+            if (r != null) {
+                c.unbind(r);
+            }
+        }
+    }
+
+    private void dispatch() {
+        // start another serving job if there is work and we are below limit
+        int n;
+        do {
+            n = servers.get();
+            if (n >= maxServers || active.isEmpty()) {
+                return;
+            }
+        } while (!servers.compareAndSet(n, n + 1));
+        try {
+            workPool.submit(this::serve);
+        } catch (RejectedExecutionException e) {
+            servers.decrementAndGet();
+        }
+    }
+
+    private void serve() {
+        try {
+            // deficit round-robin: channel is taken from head, gets quantum by its
+            // weight and goes to tail if it still has work, so cold channel waits
+            // for at most one quantum of each hot channel
+            WorkerContext c;
+            while (running && (c = active.poll()) != null) {
+                c.serve();
+            }
+        } finally {
+            servers.decrementAndGet();
+            // channel activated after our last poll may have found limit reached
+            dispatch();
+        }
     }
 
     private void notifyFetcher() {
         LockSupport.unpark(fetchThread);
     }
 
-    protected abstract Object idOf(T o);
+    /**
+     * Put identifier parts of message into hasher, messages with same
+     * identifier are sent only once
+     */
+    protected abstract void idOf(T o, IdHasher id);
 
     protected abstract int channelOf(T o);
 
+    /**
+     * Priority lane of message inside its channel, 0 is the most urgent one,
+     * called from many threads, so it must not depend on mutable state
+     */
+    protected int priorityOf(T o) {
+        return 0;
+    }
+
+    /**
+     * Key of messages replacing each other, only message with the highest
+     * {@link #versionOf(Object)} of key is sent, others are committed along
+     * with it, null if message is never superseded. Used only if coalescing
+     * is enabled, called from many threads.
+     */
+    protected Object supersedeKeyOf(T o) {
+        return null;
+    }
+
+    /**
+     * Version of message among those with the same {@link #supersedeKeyOf(Object)}
+     */
+    protected long versionOf(T o) {
+        return 0;
+    }
+
+    /**
+     * Time message was made in source, lag from it till send is recorded
+     * per channel, null if unknown
+     */
+    protected Instant sourceStampOf(T o) {
+        return null;
+    }
+
+    /**
+     * Called from completion callbacks with messages acknowledged by broker,
+     * must be cheap, callback thread may belong to producer
+     *
+     * @param changes           the acknowledged messages
+     * @param channel           the channel of messages
+     * @param acknowledgedNanos {@link System#nanoTime()} when acknowledgement came
+     */
+    protected void onAcknowledged(List<T> changes, int channel, long acknowledgedNanos) {
+    }
+
+    /**
+     * Keep only the latest message of every supersede key, in order of list
+     *
+     * @param l          the messages to coalesce
+     * @param superseded receives superseded messages by survivor
+     * @return messages to send
+     */
+    private List<T> coalesce(List<T> l, Map<T, List<T>> superseded) {
+        Map<Object, T> latest = new HashMap<>();
+        for (T o : l) {
+            var key = supersedeKeyOf(o);
+            if (key != null) {
+                latest.merge(key, o, (a, b) -> versionOf(b) > versionOf(a) ? b : a);
+            }
+        }
+        List<T> r = new ArrayList<>(latest.size());
+        for (T o : l) {
+            var key = supersedeKeyOf(o);
+            var survivor = key == null ? o : latest.get(key);
+            if (survivor == o) {
+                r.add(o);
+            } else {
+                superseded.computeIfAbsent(survivor, ignored -> new ArrayList<>(1)).add(o);
+            }
+        }
+        return r;
+    }
+
+    private static <T> Set<T> identitySet(List<T> l) {
+        Set<T> r = Collections.newSetFromMap(new IdentityHashMap<>(l.size()));
+        r.addAll(l);
+        return r;
+    }
+
+    private List<T> withSuperseded(List<T> l, Map<T, List<T>> superseded) {
+        if (superseded == null || superseded.isEmpty() || l.isEmpty()) {
+            return l;
+        }
+        List<T> r = new ArrayList<>(l);
+        for (T o : l) {
+            r.addAll(superseded.getOrDefault(o, List.of()));
+        }
+        return r;
+    }
+
+    private int laneOf(T o) {
+        return Math.min(laneCount - 1, Math.max(0, priorityOf(o)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> MpscRingBuffer<T>[] newLanes(int count) {
+        var r = (MpscRingBuffer<T>[]) new MpscRingBuffer<?>[count];
+        for (int i = 0; i < count; i++) {
+            r[i] = new MpscRingBuffer<>(CHANNEL_QUEUE_SIZE);
+        }
+        return r;
+    }
+
     private boolean fetch() {
-        boolean empty = false;
-        int page = 0;
+        // each refill starts from the beginning of source, already registered
+        // messages are filtered out by idSet, we collect messages till source
+        // has no more of them, or we reached our buffer size
+        long start = System.nanoTime();
+        int fetched = prefetchExecutor == null
+                ? source.stream(this::registerChange)
+                : fetchPipelined();
+        flushRegistered();
+        record(fetchTimer, start);
+        return fetched > 0;
+    }
+
+    private int fetchPipelined() {
         int fetched = 0;
-        // we collect messages from database till page contains no more
-        // elements, or we reached our buffer size
-        while (!empty && fetchCount < MAX_FETCH) {
-            var c = source.fetch(page);
-            registerChanges(c);
-            page++;
-            fetched += c.size();
-            empty = c.isEmpty();
+        var next = prefetch(null);
+        while (next != null) {
+            var p = next.join();
+            next = null;
+            if (p.isEmpty()) break;
+            // next page query goes to database while we route this one,
+            // we request it only if there is room for it, so no page
+            // is read in vain (claimed pages can not be thrown away)
+            if (fetchCount.get() + p.changes().size() < MAX_FETCH) {
+                next = prefetch(p.cursor());
+            }
+            for (T c : p.changes()) {
+                registerChange(c);
+            }
+            flushRegistered();
+            fetched += p.changes().size();
         }
-        return fetched > 0;
+        return fetched;
+    }
+
+    private CompletableFuture<ChangePage<T>> prefetch(Object cursor) {
+        return CompletableFuture.supplyAsync(() -> source.fetchNext(cursor), prefetchExecutor);
     }
 
-    private void registerChanges(List<T> c) {
-        Map<Integer, List<T>> m = new HashMap<>();
-        for (T o : c) {
-            if (idSet.add(idOf(o))) {
-                m.computeIfAbsent(channelOf(o), ignored -> new ArrayList<>(c.size()))
-                        .add(o);
-                fetchCount++;
+    private boolean registerChange(T o) {
+        int channel = channelOf(o);
+        if (!map.containsKey(channel)) {
+            // source should filter such changes, we must not fail here
+            // because of them, so they are left for other instances,
+            // with dynamic channels source may lag behind ownership changes
+            if (config.isDynamicChannels()) {
+                log.debug("No worker for channel {}, change skipped", channel);
+            } else {
+                log.warn("No worker for channel {}, change skipped", channel);
+            }
+            skip(o);
+        } else if (!isNew(o)) {
+            skip(o);
+        } else {
+            registered.computeIfAbsent(channel, ignored -> new ArrayList<>(REGISTER_FLUSH_SIZE))
+                    .add(o);
+            fetchCount.incrementAndGet();
+            // workers should not wait till whole fetch completes
+            if (++registeredCount >= REGISTER_FLUSH_SIZE) {
+                flushRegistered();
             }
         }
-        m.forEach((channel, list) -> map.get(channel).addAll(list));
+        return fetchCount.get() < MAX_FETCH;
     }
 
+    private void skip(T o) {
+        skipped.add(o);
+        if (skipped.size() >= REGISTER_FLUSH_SIZE) {
+            flushSkipped();
+        }
+    }
+
+    private boolean isNew(T o) {
+        idOf(o, idHasher.reset());
+        return idSet.add(idHasher);
+    }
 
-    private void commit() {
-        // flush all changes to persistent storage
-        while (!commitQueue.isEmpty()) {
-            // 32 items updated in batch per transaction
-            List<T> changes = fetchFromQueue(commitQueue, 32);
-            source.commit(changes);
-            fetchCount -= changes.size();
+    private void forgetReleased() {
+        T o;
+        int count = 0;
+        while ((o = released.poll()) != null) {
+            idOf(o, idHasher.reset());
+            idSet.remove(idHasher);
+            count++;
         }
+        if (count > 0) {
+            fetchCount.addAndGet(-count);
+            log.debug("Released {} changes of removed channels", count);
+        }
+    }
+
+    private void flushRegistered() {
+        registered.forEach((channel, list) -> {
+            if (!list.isEmpty()) {
+                var c = map.get(channel);
+                if (c == null) {
+                    // channel was removed during fetch
+                    released.addAll(list);
+                } else {
+                    c.addAll(list);
+                }
+                list.clear();
+            }
+        });
+        registeredCount = 0;
+        flushSkipped();
     }
 
-    private static <E> List<E> fetchFromQueue(Queue<E> q, int maxSize) {
-        List<E> l = new ArrayList<>(maxSize);
-        while (l.size() < maxSize && !q.isEmpty()) {
-            l.add(q.poll());
+    private void flushSkipped() {
+        if (!skipped.isEmpty()) {
+            // streaming sources never return them again
+            source.skip(skipped);
+            skipped.clear();
+        }
+    }
+
+    private void commit(List<T> changes) {
+        // flush changes to persistent storage
+        long start = System.nanoTime();
+        source.commit(changes);
+        record(commitTimer, start);
+        fetchCount.addAndGet(-changes.size());
+        // buffers may have enough room for next fetch
+        if (shouldFetch()) {
+            notifyFetcher();
         }
-        return l;
     }
 
     private void waitOnError() {
@@ -184,75 +708,507 @@ public abstract class ChangeSenderService<T> {
          */
         private final int channel;
         /**
-         * Message queue to buffer messages before sending
+         * Message queues by priority lane to buffer messages before sending, filled by
+         * fetcher, completion callbacks and retry scheduler, drained by worker only
+         */
+        private final MpscRingBuffer<T>[] lanes;
+        /**
+         * Batches sent in a row without messages of lane while it had them, serving thread only
+         */
+        private final int[] skips;
+        /**
+         * Guards breaker and retry list, lock is used instead of monitor, so
+         * virtual threads waiting for it do not pin their carrier threads
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Failure tracking of this channel, guarded by lock
+         */
+        private final ChannelBreaker breaker = new ChannelBreaker(
+                config.getRetryInitialDelay(), config.getRetryMaxDelay(), config.getBreakerThreshold());
+        /**
+         * Failed messages in send order, they go before queued ones and channel sends
+         * nothing till {@link #retryAt}, so newer messages never overtake them, guarded by lock
+         */
+        private final List<T> retry = new ArrayList<>();
+        /**
+         * Time of retry in nanoseconds, guarded by lock
+         */
+        private long retryAt;
+        /**
+         * Batches in flight in send order, results are handled in this order, so
+         * acknowledgements coming out of order do not reorder commits and retries,
+         * guarded by lock
+         */
+        private final Deque<Batch> window = new ArrayDeque<>();
+        /**
+         * Set once batch of window failed, later batches of window are retried after
+         * it whatever their result, so they never overtake it, cleared once window is
+         * empty, channel sends nothing till then, guarded by lock
+         */
+        private boolean pullBack;
+        /**
+         * Batches sent, but not yet handled, incremented by worker only
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+        /**
+         * Set while channel is in active queue or being served, so only
+         * one thread sends messages of channel at a time
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /**
+         * Messages sent per round
+         */
+        private final int channelQuantum;
+        /**
+         * Messages channel may still send in current round, serving thread only
+         */
+        private int deficit;
+        /**
+         * Total time spent serving channel, written by serving thread only
+         */
+        private volatile long serviceNanos;
+        /**
+         * Set once channel is removed, queued changes are released then
          */
-        private final Queue<T> q = new LinkedList<>();
-        private volatile boolean stopped = true;
+        private volatile boolean closed;
+        /**
+         * Meters of channel, guarded by itself
+         */
+        private final List<Meter> meters = new ArrayList<>();
+        /**
+         * Lag timers of channel, percentiles are tracked in HDR histograms by registry
+         */
+        private volatile Timer sourceLag;
+        private volatile Timer ackLag;
 
-        public WorkerContext(int channel) {
+        public WorkerContext(int channel, int weight) {
             this.channel = channel;
+            this.channelQuantum = quantum * Math.max(1, weight);
+            this.lanes = newLanes(laneCount);
+            this.skips = new int[laneCount];
         }
 
-        private void doWork() {
-            boolean _stopped = true;
+        private void serve() {
+            long start = System.nanoTime();
             try {
-                // we should process at max maxProcessingChunk messages
-                // and then reschedule ourselves in order to let other
-                // channels to be processed
-                int processed = 0;
-                while (running && !isEmpty() && processed < maxProcessingChunk) {
-                    processed += sendMessages();
+                if (closed) {
+                    // queue is drained by serving thread only
+                    release();
+                    return;
                 }
-                if (isEmpty()) {
-                    notifyFetcher();
-                } else {
-                    workPool.submit(this::doWork);
-                    _stopped = false;
+                deficit += channelQuantum;
+                while (running && deficit > 0) {
+                    int sent = sendMessages(Math.min(SEND_BATCH_SIZE, deficit));
+                    if (sent == 0) break;
+                    deficit -= sent;
                 }
             } catch (Throwable e) {
+                // failed batch is already handed to breaker, so we
+                // just give pool thread to other channels
                 log.error("Unable to send messages", e);
-                // this would block out fork join pool thread from processing further
-                // in case of error it is okay
-                waitOnError();
             } finally {
-                stopped = _stopped;
+                serviceNanos += System.nanoTime() - start;
+                reschedule();
+            }
+        }
+
+        private void reschedule() {
+            if (running && !isEmpty() && (closed || canSend())) {
+                // round is over, channel stays active and waits for its next turn
+                active.add(this);
+                dispatch();
+                return;
+            }
+            // idle channel does not keep its deficit
+            deficit = 0;
+            // flag is cleared before queue is checked again, so producer that
+            // added messages after our last drain either sees cleared flag and
+            // schedules us, or we see its messages here
+            scheduled.set(false);
+            if (!trySchedule() && isEmpty()) {
+                notifyFetcher();
+            }
+        }
+
+        private boolean canSend() {
+            int allowed;
+            lock.lock();
+            try {
+                if (pullBack || !retry.isEmpty() && System.nanoTime() - retryAt < 0) {
+                    return false;
+                }
+                allowed = breaker.allowedInFlight(maxInFlightBatches);
+            } finally {
+                lock.unlock();
             }
+            return inFlight.get() < allowed;
         }
 
-        private int sendMessages() {
-            List<T> w;
-            synchronized (q) {
-                w = fetchFromQueue(q, 128);
+        private int sendMessages(int max) {
+            if (!canSend()) {
+                return 0;
+            }
+            List<T> drained = new ArrayList<>(max);
+            int retried = takeRetry(drained, max);
+            if (drainTo(drained, max) == 0) {
+                return 0;
+            }
+            // superseded messages are not sent, they follow their survivor instead
+            Map<T, List<T>> superseded = coalesce ? new IdentityHashMap<>() : null;
+            List<T> w = coalesce ? coalesce(drained, superseded) : drained;
+            var batch = new Batch(w, superseded);
+            inFlight.incrementAndGet();
+            lock.lock();
+            try {
+                window.addLast(batch);
+            } finally {
+                lock.unlock();
             }
-            var r = sender.send(w, channel);
-            commitQueue.addAll(r);
+            recordSourceLag(w, retried == 0 ? Set.of() : identitySet(drained.subList(0, retried)));
+            long start = System.nanoTime();
+            CompletionStage<List<T>> stage;
+            try {
+                stage = sender.sendAsync(w, channel);
+            } catch (Throwable e) {
+                onSent(batch, List.of());
+                throw e;
+            }
+            // pool thread is not blocked while batch is in flight, acknowledged
+            // messages are handed to committer from completion callback
+            stage.whenComplete((r, e) -> {
+                long now = System.nanoTime();
+                if (e != null) {
+                    log.error("Unable to send messages", e);
+                }
+                record(sendTimer, start);
+                if (e == null && !r.isEmpty()) {
+                    // failed batches would show timeouts, not broker latency
+                    record(ackLag, start);
+                    acknowledged(r, now);
+                }
+                onSent(batch, e == null ? r : List.of());
+            });
             // source messages used because we need to ensure that
             // if something goes bad with this channel - others will get their
             // place, otherwise we'll lock here indefinitely
-            int processed = w.size();
-            log.info("Successfully sent {} of {} messages to channel {}", r.size(), processed, channel);
-            // if something was not sent - we must reschedule it
-            if (r.size() != w.size()) {
-                w.removeAll(r);
-                addAll(w);
+            return drained.size();
+        }
+
+        /**
+         * Record lag of messages sent for the first time, retried ones were recorded already
+         */
+        private void recordSourceLag(List<T> w, Set<T> retried) {
+            var timer = sourceLag;
+            if (timer == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (T o : w) {
+                if (retried.contains(o)) {
+                    continue;
+                }
+                var stamp = sourceStampOf(o);
+                if (stamp != null) {
+                    timer.record(Math.max(0, now - stamp.toEpochMilli()), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void acknowledged(List<T> r, long acknowledgedNanos) {
+            try {
+                onAcknowledged(r, channel, acknowledgedNanos);
+            } catch (Throwable e) {
+                // lag tracking must not break delivery
+                log.warn("Acknowledgement listener failed", e);
+            }
+        }
+
+        private void onSent(Batch batch, List<T> r) {
+            // counters are cheap, formatting line for every batch is not
+            increment(sentCounter, r.size());
+            increment(failedCounter, batch.messages.size() - r.size());
+            if (log.isDebugEnabled()) {
+                log.debug("Successfully sent {} of {} messages to channel {}", r.size(), batch.messages.size(), channel);
+            }
+            List<T> commit = new ArrayList<>();
+            lock.lock();
+            try {
+                batch.acknowledged = r;
+                while (!window.isEmpty() && window.peekFirst().acknowledged != null) {
+                    handle(window.pollFirst(), commit);
+                    inFlight.decrementAndGet();
+                }
+                if (window.isEmpty()) {
+                    pullBack = false;
+                }
+            } finally {
+                lock.unlock();
             }
-            return processed;
+            committer.addAll(commit);
+            // window has room again
+            trySchedule();
+        }
+
+        /**
+         * Commit acknowledged prefix of batch, rest of it is retried,
+         * called under lock for batches in send order
+         */
+        private void handle(Batch b, List<T> commit) {
+            if (pullBack) {
+                // earlier batch failed, acknowledged messages are sent again after it
+                retry.addAll(b.withSuperseded(b.messages));
+                return;
+            }
+            int n = b.messages.size();
+            if (b.acknowledged.size() == n) {
+                commit.addAll(b.withSuperseded(b.messages));
+                breaker.onSuccess();
+                return;
+            }
+            // messages after first failed one are retried too, otherwise they would overtake it
+            var acknowledged = identitySet(b.acknowledged);
+            int failed = 0;
+            while (failed < n && acknowledged.contains(b.messages.get(failed))) {
+                failed++;
+            }
+            commit.addAll(b.withSuperseded(b.messages.subList(0, failed)));
+            // superseded messages are retried with their survivor
+            onFailure(b.withSuperseded(b.messages.subList(failed, n)));
+            pullBack = true;
+        }
+
+        /**
+         * Must be called under lock
+         */
+        private void onFailure(List<T> unsent) {
+            boolean wasOpen = breaker.isOpen();
+            long delay = breaker.onFailure();
+            // channel is held till retry, queued changes may be newer
+            // versions of failed ones and must not overtake them
+            retry.addAll(unsent);
+            retryAt = System.nanoTime() + delay;
+            if (breaker.isOpen() && !wasOpen) {
+                log.warn("Channel {} is parked for {} ms after repeated failures", channel, TimeUnit.NANOSECONDS.toMillis(delay));
+                schedule(this::resume, delay);
+            } else {
+                schedule(this::trySchedule, delay);
+            }
+        }
+
+        private void resume() {
+            lock.lock();
+            try {
+                breaker.halfOpen();
+            } finally {
+                lock.unlock();
+            }
+            trySchedule();
+        }
+
+        private void schedule(Runnable task, long delay) {
+            try {
+                retryScheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // service is stopped, changes will be sent again after restart
+            }
+        }
+
+        /**
+         * Messages of single send, acknowledged ones are set by completion
+         */
+        private final class Batch {
+            private final List<T> messages;
+            private final Map<T, List<T>> superseded;
+            /**
+             * Null while batch is in flight, guarded by lock
+             */
+            private List<T> acknowledged;
+
+            Batch(List<T> messages, Map<T, List<T>> superseded) {
+                this.messages = messages;
+                this.superseded = superseded;
+            }
+
+            List<T> withSuperseded(List<T> l) {
+                return ChangeSenderService.this.withSuperseded(l, superseded);
+            }
+        }
+
+        void bindTo(MeterRegistry registry) {
+            var tags = Tags.of("channel", String.valueOf(channel));
+            synchronized (meters) {
+                if (!meters.isEmpty()) {
+                    return;
+                }
+                meters.add(Gauge.builder("scp.sender.channel.queue", this, WorkerContext::size)
+                        .description("Changes waiting for send in channel queues")
+                        .baseUnit("changes")
+                        .tags(tags)
+                        .register(registry));
+                meters.add(Gauge.builder("scp.sender.channel.in.flight", inFlight, AtomicInteger::get)
+                        .description("Batches of channel waiting for acknowledgement")
+                        .baseUnit("batches")
+                        .tags(tags)
+                        .register(registry));
+                meters.add(FunctionCounter.builder("scp.sender.channel.service", this, c -> c.serviceNanos / 1e9)
+                        .description("Time pool threads spent sending changes of channel")
+                        .baseUnit("seconds")
+                        .tags(tags)
+                        .register(registry));
+                sourceLag = Timer.builder("scp.sender.lag.source")
+                        .description("Time from change in source till its send")
+                        .publishPercentiles(LAG_PERCENTILES)
+                        .tags(tags)
+                        .register(registry);
+                ackLag = Timer.builder("scp.sender.lag.ack")
+                        .description("Time from send of batch till its acknowledgement by broker")
+                        .publishPercentiles(LAG_PERCENTILES)
+                        .tags(tags)
+                        .register(registry);
+                meters.add(sourceLag);
+                meters.add(ackLag);
+            }
+        }
+
+        void unbind(MeterRegistry registry) {
+            synchronized (meters) {
+                sourceLag = null;
+                ackLag = null;
+                meters.forEach(registry::remove);
+                meters.clear();
+            }
+        }
+
+        private int size() {
+            int r;
+            lock.lock();
+            try {
+                r = retry.size();
+            } finally {
+                lock.unlock();
+            }
+            for (var lane : lanes) {
+                r += lane.size();
+            }
+            return r;
+        }
+
+        void close() {
+            closed = true;
+            trySchedule();
+        }
+
+        private void release() {
+            List<T> l = new ArrayList<>();
+            lock.lock();
+            try {
+                l.addAll(retry);
+                retry.clear();
+            } finally {
+                lock.unlock();
+            }
+            for (var lane : lanes) {
+                lane.drainTo(l, Integer.MAX_VALUE);
+            }
+            released.addAll(l);
+            notifyFetcher();
+        }
+
+        /**
+         * Take failed messages, they go before any queued ones
+         *
+         * @return the number of messages taken
+         */
+        private int takeRetry(List<T> w, int max) {
+            lock.lock();
+            try {
+                if (retry.isEmpty()) {
+                    return 0;
+                }
+                var taken = retry.subList(0, Math.min(max - w.size(), retry.size()));
+                int n = taken.size();
+                w.addAll(taken);
+                taken.clear();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Take messages from lanes in priority order, lane skipped maxLaneSkips
+         * batches in a row while it had messages goes first, so busy urgent lanes
+         * do not starve others
+         */
+        private int drainTo(List<T> w, int max) {
+            if (lanes.length == 1) {
+                lanes[0].drainTo(w, max - w.size());
+                return w.size();
+            }
+            long served = 0;
+            for (int i = 0; i < lanes.length; i++) {
+                if (skips[i] >= maxLaneSkips && lanes[i].drainTo(w, max - w.size()) > 0) {
+                    served |= 1L << i;
+                }
+            }
+            for (int i = 0; i < lanes.length && w.size() < max; i++) {
+                if (lanes[i].drainTo(w, max - w.size()) > 0) {
+                    served |= 1L << i;
+                }
+            }
+            for (int i = 0; i < lanes.length; i++) {
+                skips[i] = (served & (1L << i)) == 0 && !lanes[i].isEmpty() ? skips[i] + 1 : 0;
+            }
+            return w.size();
+        }
+
+        private boolean isEmpty() {
+            lock.lock();
+            try {
+                if (!retry.isEmpty()) {
+                    return false;
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (var lane : lanes) {
+                if (!lane.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         public void addAll(List<T> l) {
-            synchronized (q) {
-                q.addAll(l);
-                if (stopped && !q.isEmpty()) {
-                    stopped = false;
-                    workPool.submit(this::doWork);
+            if (lanes.length == 1) {
+                lanes[0].addAll(l, this::trySchedule);
+            } else {
+                List<List<T>> byLane = new ArrayList<>(lanes.length);
+                for (int i = 0; i < lanes.length; i++) {
+                    byLane.add(new ArrayList<>());
+                }
+                for (T o : l) {
+                    byLane.get(laneOf(o)).add(o);
+                }
+                for (int i = 0; i < lanes.length; i++) {
+                    lanes[i].addAll(byLane.get(i), this::trySchedule);
                 }
             }
+            trySchedule();
         }
 
-        boolean isEmpty() {
-            synchronized (q) {
-                return q.isEmpty();
+        private boolean trySchedule() {
+            if (running && !isEmpty() && (closed || canSend()) && scheduled.compareAndSet(false, true)) {
+                active.add(this);
+                dispatch();
+                return true;
             }
+            return false;
+        }
+
+        boolean hasInFlight() {
+            return inFlight.get() > 0;
         }
     }
 }
@@ -1,9 +1,75 @@
 package com.lastrix.scp.sender;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 public interface ChangeSourceService<T> {
     List<T> fetch(int page);
 
+    /**
+     * Fetch page of changes located right after cursor position.
+     * Default implementation treats cursor as page number and delegates to {@link #fetch(int)},
+     * sources supporting seek access should override this method.
+     *
+     * @param cursor the cursor returned by previous call or null to start from beginning
+     * @return the page of changes and cursor for next call
+     */
+    default ChangePage<T> fetchNext(Object cursor) {
+        int page = cursor == null ? 0 : (Integer) cursor;
+        return new ChangePage<>(fetch(page), page + 1);
+    }
+
+    /**
+     * Read changes from the beginning of source and hand each of them to consumer as soon as
+     * it is read. Once consumer returns false no more changes are read, but every change read
+     * so far is still handed to consumer, sources may never return it again (streamed or
+     * claimed rows). Reading also stops when source has no more changes.
+     * Default implementation reads pages with {@link #fetchNext(Object)} and stops at page boundary.
+     *
+     * @param consumer the consumer of changes, returns false if no more changes required
+     * @return the number of changes read
+     */
+    default int stream(Predicate<T> consumer) {
+        Object cursor = null;
+        int count = 0;
+        while (true) {
+            var p = fetchNext(cursor);
+            if (p.isEmpty()) {
+                return count;
+            }
+            boolean more = true;
+            for (T c : p.changes()) {
+                count++;
+                // rest of page is consumed anyway
+                more = consumer.test(c) && more;
+            }
+            if (!more) {
+                return count;
+            }
+            cursor = p.cursor();
+        }
+    }
+
     void commit(List<T> changes);
+
+    /**
+     * Hand back changes read from source, but not taken for sending: their channel is not
+     * served by this instance, or the same change was already taken. Sources returning
+     * such changes again on next read may ignore this call, sources that never return them
+     * again should treat them as done, otherwise they wait for commit forever.
+     *
+     * @param changes the changes not taken
+     */
+    default void skip(List<T> changes) {
+    }
+
+    /**
+     * Register listener that should be called when source gets new changes.
+     * Sources unable to push notifications may ignore this call, in that case
+     * sender relies on polling only.
+     *
+     * @param listener the callback, must be cheap and non-blocking
+     */
+    default void subscribe(Runnable listener) {
+    }
 }
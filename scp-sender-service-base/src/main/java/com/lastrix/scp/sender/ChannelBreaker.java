@@ -0,0 +1,77 @@
+package com.lastrix.scp.sender;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Circuit breaker of single channel. Every failed batch increases retry delay
+ * exponentially, after threshold of consecutive failures breaker opens and
+ * channel is parked for that delay. Once delay passes, breaker is half open:
+ * single batch is allowed and its outcome either closes or opens breaker again.
+ * <p>
+ * Not thread safe, owner should guard it.
+ */
+final class ChannelBreaker {
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int threshold;
+    private int failures;
+    private boolean open;
+    private boolean halfOpen;
+
+    ChannelBreaker(Duration initialDelay, Duration maxDelay, int threshold) {
+        this.initialDelay = Math.max(1, initialDelay.toNanos());
+        this.maxDelay = Math.max(this.initialDelay, maxDelay.toNanos());
+        this.threshold = Math.max(1, threshold);
+    }
+
+    void onSuccess() {
+        failures = 0;
+        halfOpen = false;
+    }
+
+    /**
+     * Register failed batch
+     *
+     * @return nanoseconds to wait before retrying failed changes
+     */
+    long onFailure() {
+        failures++;
+        long delay = delay();
+        if (!open && (halfOpen || failures >= threshold)) {
+            open = true;
+        }
+        return delay;
+    }
+
+    /**
+     * Called once delay of open breaker passed
+     */
+    void halfOpen() {
+        open = false;
+        halfOpen = true;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * How many batches may be in flight now
+     */
+    int allowedInFlight(int max) {
+        if (open) return 0;
+        return halfOpen ? 1 : max;
+    }
+
+    private long delay() {
+        // doubling stops at max, so it never overflows
+        long d = initialDelay;
+        for (int i = 0; i < failures - 1 && d < maxDelay; i++) {
+            d <<= 1;
+        }
+        d = Math.min(d, maxDelay);
+        // half of delay is random, so channels failing together do not retry together
+        return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+    }
+}
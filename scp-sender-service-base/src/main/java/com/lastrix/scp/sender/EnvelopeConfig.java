@@ -0,0 +1,14 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.EnvelopeCompression;
+
+/**
+ * Settings of envelope mode of {@link KafkaChangeSender}, envelope is
+ * closed once it reaches either limit
+ *
+ * @param maxChanges  the maximum changes in single envelope
+ * @param maxBytes    the maximum uncompressed body size of envelope
+ * @param compression the compression of envelope body
+ */
+public record EnvelopeConfig(int maxChanges, int maxBytes, EnvelopeCompression compression) {
+}
@@ -0,0 +1,144 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.ExecutionMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Drains queue of sent changes on its own thread and passes them to committer.
+ * Changes added close in time are coalesced into single commit: when first change arrives
+ * worker waits for linger time or till full chunk collected, so concurrent senders
+ * share one transaction instead of issuing their own.
+ *
+ * @param <T>
+ */
+final class GroupCommitWorker<T> {
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWorker.class);
+
+    /**
+     * This queue contains messages that should be persisted in database.
+     * If for some reason we won't be able to store this information, then next restart
+     * we'll send those messages again
+     */
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * Size of queue, because {@link ConcurrentLinkedQueue#size()} traverses whole queue
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final Consumer<List<T>> committer;
+    private final int chunkSize;
+    private final long lingerNanos;
+    private final long idleNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+    /**
+     * Changes being committed right now, they are not in queue
+     */
+    private volatile List<T> committing = List.of();
+
+    GroupCommitWorker(Consumer<List<T>> committer, int chunkSize, Duration linger, Duration idle, ExecutionMode mode) {
+        this.committer = committer;
+        this.chunkSize = chunkSize;
+        this.lingerNanos = linger.toNanos();
+        this.idleNanos = idle.toNanos();
+        thread = mode.newThread(this::doWork, "change-sender-commit-thread");
+        thread.start();
+    }
+
+    public void addAll(Collection<T> changes) {
+        if (changes.isEmpty()) return;
+        queue.addAll(changes);
+        int n = size.addAndGet(changes.size());
+        // wake up worker when linger should start or when chunk is full,
+        // otherwise it is already awake and waiting
+        if (n == changes.size() || n >= chunkSize) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Copy of changes waiting for commit, may contain duplicates
+     * if commit fails while copy is made
+     */
+    public List<T> snapshot() {
+        List<T> r = new ArrayList<>(committing);
+        r.addAll(queue);
+        return r;
+    }
+
+    /**
+     * Stop worker and commit everything left in queue on caller thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(Duration.ofSeconds(5).toMillis());
+            flush();
+        } catch (Throwable e) {
+            log.warn("Failed to commit changes on close, they will be sent again", e);
+        }
+    }
+
+    private void doWork() {
+        while (running) {
+            try {
+                if (size.get() == 0) {
+                    LockSupport.parkNanos(idleNanos);
+                    continue;
+                }
+                // let concurrent senders add their results, so they will be
+                // committed in the same transaction
+                long deadline = System.nanoTime() + lingerNanos;
+                long remaining;
+                while (running && size.get() < chunkSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remaining);
+                }
+                flush();
+            } catch (Throwable e) {
+                log.error("Failed to commit", e);
+                waitOnError();
+            }
+        }
+    }
+
+    private void flush() {
+        while (size.get() > 0) {
+            List<T> l = new ArrayList<>(Math.min(size.get(), chunkSize));
+            T c;
+            while (l.size() < chunkSize && (c = queue.poll()) != null) {
+                l.add(c);
+            }
+            committing = l;
+            try {
+                committer.accept(l);
+            } catch (Throwable e) {
+                // changes must not be lost, otherwise they are never committed
+                // and their place in buffers is never released
+                queue.addAll(l);
+                throw e;
+            } finally {
+                committing = List.of();
+            }
+            size.addAndGet(-l.size());
+        }
+    }
+
+    private void waitOnError() {
+        try {
+            Thread.sleep(Duration.ofSeconds(15).toMillis());
+        } catch (InterruptedException ignored) {
+            // do nothing
+        }
+    }
+}
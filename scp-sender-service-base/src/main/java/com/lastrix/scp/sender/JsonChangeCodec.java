@@ -0,0 +1,38 @@
+package com.lastrix.scp.sender;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Codec writing changes as json directly into buffer, without intermediate strings
+ *
+ * @param <T>
+ */
+public class JsonChangeCodec<T> implements ChangeCodec<T> {
+    private final ObjectMapper mapper;
+    private final Class<T> type;
+
+    public JsonChangeCodec(ObjectMapper mapper, Class<T> type) {
+        this.mapper = mapper;
+        this.type = type;
+    }
+
+    @Override
+    public void encode(T change, ChangeBuffer out) {
+        try {
+            mapper.writeValue(out, change);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to convert value to json", e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length) {
+        try {
+            return mapper.readValue(data, offset, length, type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to convert value from json", e);
+        }
+    }
+}
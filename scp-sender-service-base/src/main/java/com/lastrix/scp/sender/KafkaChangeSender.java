@@ -1,81 +1,225 @@
 package com.lastrix.scp.sender;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import com.lastrix.scp.common.ChangeEnvelope;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class KafkaChangeSender<T> implements ChangeSender<T> {
     private static final Logger log = LoggerFactory.getLogger(KafkaChangeSender.class);
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper mapper;
+    /**
+     * Initial size of encoding buffer, enough for most messages
+     */
+    private static final int BUFFER_SIZE = 1024;
+    /**
+     * Buffers grown above this size are not kept for reuse
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * BUFFER_SIZE;
+
+    private final KafkaProducerPool producers;
+    private final ChangeCodec<T> codec;
     private final String topicTemplate;
+    /**
+     * Record key for change, changes with same key go to same partition in
+     * order they were sent, null if records should be sent without key
+     */
+    private final Function<T, String> keyExtractor;
+    /**
+     * Pack many changes into single record, null if every change is sent as separate record
+     */
+    private final EnvelopeConfig envelope;
+    /**
+     * Partitioner configured for producers, envelopes are placed by sender, so it must
+     * put every key where producer would, null if producers use default partitioner
+     */
+    private final Partitioner partitioner;
+    /**
+     * Encoding buffer per sending thread
+     */
+    private final ThreadLocal<ChangeBuffer> buffers = ThreadLocal.withInitial(() -> new ChangeBuffer(BUFFER_SIZE));
+
+    public KafkaChangeSender(KafkaTemplate<String, byte[]> kafkaTemplate, ChangeCodec<T> codec, String topicTemplate) {
+        this(kafkaTemplate, codec, topicTemplate, null);
+    }
+
+    public KafkaChangeSender(KafkaTemplate<String, byte[]> kafkaTemplate, ChangeCodec<T> codec, String topicTemplate, Function<T, String> keyExtractor) {
+        this(kafkaTemplate, codec, topicTemplate, keyExtractor, null);
+    }
 
-    public KafkaChangeSender(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper, String topicTemplate) {
-        this.kafkaTemplate = kafkaTemplate;
-        this.mapper = mapper;
+    public KafkaChangeSender(KafkaTemplate<String, byte[]> kafkaTemplate, ChangeCodec<T> codec, String topicTemplate, Function<T, String> keyExtractor, EnvelopeConfig envelope) {
+        this(KafkaProducerPool.of(kafkaTemplate), codec, topicTemplate, keyExtractor, envelope);
+    }
+
+    public KafkaChangeSender(KafkaProducerPool producers, ChangeCodec<T> codec, String topicTemplate, Function<T, String> keyExtractor, EnvelopeConfig envelope) {
+        this(producers, codec, topicTemplate, keyExtractor, envelope, null);
+    }
+
+    public KafkaChangeSender(KafkaProducerPool producers, ChangeCodec<T> codec, String topicTemplate, Function<T, String> keyExtractor, EnvelopeConfig envelope, Partitioner partitioner) {
+        this.producers = producers;
+        this.codec = codec;
         this.topicTemplate = topicTemplate;
+        this.keyExtractor = keyExtractor;
+        this.envelope = envelope;
+        this.partitioner = partitioner;
     }
 
     @Override
     public List<T> send(List<T> changes, int channel) {
+        // we should wait till all changes sent to server
+        // it should happen eventually
+        return sendAsync(changes, channel).toCompletableFuture().join();
+    }
+
+    @Override
+    public CompletionStage<List<T>> sendAsync(List<T> changes, int channel) {
         var topic = topicTemplate + channel;
-        List<T> results = Collections.synchronizedList(new ArrayList<>(changes.size()));
-        CountDownLatch latch = new CountDownLatch(changes.size());
+        // producer is kept open while batch is in flight
+        var kafkaTemplate = producers.acquire(channel);
+        try {
+            var result = send(kafkaTemplate, topic, changes);
+            result.whenComplete((r, e) -> producers.release(channel));
+            return result;
+        } catch (RuntimeException e) {
+            producers.release(channel);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<List<T>> send(KafkaTemplate<String, byte[]> kafkaTemplate, String topic, List<T> changes) {
         // we should map messages before send
-        // this way we may be sure that in case of json serialization exception
+        // this way we may be sure that in case of serialization exception
         // no message sent to kafka
-        var list = changes.stream().map(x -> ImmutablePair.of(x, toJson(x))).toList();
+        var list = envelope == null
+                ? changes.stream().map(x -> toRecord(topic, x)).toList()
+                : pack(kafkaTemplate, topic, changes);
+        var result = new CompletableFuture<List<T>>();
+        if (list.isEmpty()) {
+            result.complete(List.of());
+            return result;
+        }
+        List<T> sent = Collections.synchronizedList(new ArrayList<>(changes.size()));
+        var remaining = new AtomicInteger(list.size());
         // essentially we are trying to send as many messages as possible, this method
         // should be called with multiple messages to work efficiently, otherwise kafka
         // may refuse to send them right away because buffer is not full enough or not
         // enough time passed from last send
+        // changes are sent in list order, so records with same key
+        // keep their order inside partition
         for (var p : list) {
-            kafkaTemplate.send(topic, p.getValue())
-                    .completable()
-                    .thenApply(r -> {
-                        log.trace("Wrote message to {}:{}", r.getProducerRecord().topic(), r.getProducerRecord().partition());
-                        results.add(p.getKey());
-                        latch.countDown();
-                        return true;
-                    })
-                    .exceptionally(throwable -> {
-                        latch.countDown();
-                        return false;
-                    });
+            try {
+                kafkaTemplate.send(p.record())
+                        .addCallback(
+                                r -> {
+                                    log.trace("Wrote message to {}:{}", topic, r.getRecordMetadata().partition());
+                                    sent.addAll(p.changes());
+                                    complete(result, remaining, sent);
+                                },
+                                e -> complete(result, remaining, sent));
+            } catch (RuntimeException e) {
+                // producer may refuse record right away, for example when its buffer
+                // is full for too long, such record is treated as not sent
+                log.warn("Unable to send message to {}", topic, e);
+                complete(result, remaining, sent);
+            }
         }
-        awaitLatch(latch);
-        return results;
+        return result;
     }
 
-    private String toJson(T change) {
-        try {
-            return mapper.writeValueAsString(change);
-        } catch (JsonProcessingException e) {
-            throw new IllegalStateException("Unable to convert value to json", e);
+    private void complete(CompletableFuture<List<T>> result, AtomicInteger remaining, List<T> sent) {
+        // last acknowledgement completes whole batch
+        if (remaining.decrementAndGet() == 0) {
+            result.complete(sent);
         }
     }
 
-    private void awaitLatch(CountDownLatch latch) {
-        // we should wait till all changes sent to server
-        // it should happen eventually
-        while (latch.getCount() > 0) {
-            try {
-                if (latch.await(100, TimeUnit.MILLISECONDS)) {
-                    break;
-                }
-            } catch (InterruptedException ignored) {
-                // do nothing
+    private Encoded<T> toRecord(String topic, T change) {
+        return new Encoded<>(List.of(change), new ProducerRecord<>(topic, keyOf(change), encode(change)));
+    }
+
+    private List<Encoded<T>> pack(KafkaTemplate<String, byte[]> kafkaTemplate, String topic, List<T> changes) {
+        List<Encoded<T>> r = new ArrayList<>();
+        if (keyExtractor == null) {
+            pack(topic, null, changes, r);
+            return r;
+        }
+        // envelope holds changes with different keys, so it can't be placed by key,
+        // instead changes are grouped by partition their key would get from
+        // producer partitioner, this way order of every key is kept
+        var partitions = kafkaTemplate.partitionsFor(topic);
+        var cluster = partitioner == null ? null : new Cluster(null, List.of(), partitions, Set.of(), Set.of());
+        Map<Integer, List<T>> byPartition = new LinkedHashMap<>();
+        for (T change : changes) {
+            var key = keyOf(change);
+            var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int partition = partitioner == null
+                    // same as default partitioner does for records with key
+                    ? Utils.toPositive(Utils.murmur2(keyBytes)) % partitions.size()
+                    : partitioner.partition(topic, key, keyBytes, null, null, cluster);
+            byPartition.computeIfAbsent(partition, ignored -> new ArrayList<>()).add(change);
+        }
+        byPartition.forEach((partition, list) -> pack(topic, partition, list, r));
+        return r;
+    }
+
+    private void pack(String topic, Integer partition, List<T> changes, List<Encoded<T>> r) {
+        var body = buffers.get();
+        body.reset();
+        int start = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            int position = body.size();
+            // length prefix is written once change is encoded
+            body.writeInt(0);
+            codec.encode(changes.get(i), body);
+            body.putInt(position, body.size() - position - ChangeEnvelope.ENTRY_OVERHEAD);
+            int count = i + 1 - start;
+            if (count >= envelope.maxChanges() || body.size() >= envelope.maxBytes() || i == changes.size() - 1) {
+                var value = ChangeEnvelope.pack(body.array(), body.size(), count, envelope.compression());
+                var record = new ProducerRecord<String, byte[]>(topic, partition, null, value,
+                        List.of(new RecordHeader(ChangeEnvelope.HEADER, new byte[]{ChangeEnvelope.VERSION})));
+                r.add(new Encoded<>(changes.subList(start, i + 1), record));
+                body.reset();
+                start = i + 1;
             }
         }
+        releaseIfHuge(body);
+    }
+
+    private String keyOf(T change) {
+        return keyExtractor == null ? null : keyExtractor.apply(change);
+    }
+
+    private byte[] encode(T change) {
+        var buffer = buffers.get();
+        buffer.reset();
+        codec.encode(change, buffer);
+        var r = buffer.toByteArray();
+        releaseIfHuge(buffer);
+        return r;
+    }
+
+    private void releaseIfHuge(ChangeBuffer buffer) {
+        if (buffer.array().length > MAX_POOLED_BUFFER_SIZE) {
+            // do not keep memory for rare huge messages
+            buffers.remove();
+        }
+    }
+
+    /**
+     * Record ready for sending and changes it holds
+     */
+    private record Encoded<T>(List<T> changes, ProducerRecord<String, byte[]> record) {
     }
 }
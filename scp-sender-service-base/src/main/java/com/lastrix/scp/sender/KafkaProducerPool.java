@@ -0,0 +1,183 @@
+package com.lastrix.scp.sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Pool of producers, each channel is pinned to single producer, so channels
+ * of different producers do not compete for accumulator and io thread.
+ * Producers are created on first use and closed after being idle for a while.
+ */
+public class KafkaProducerPool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(KafkaProducerPool.class);
+
+    private final Slot[] slots;
+    private final long idleNanos;
+    /**
+     * Closes idle producers, null if producers are never closed
+     */
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * Create pool
+     *
+     * @param factory     creates factory for every new producer, each one has its own buffers
+     * @param size        the number of producers, channels are spread over them by modulo
+     * @param idleTimeout how long unused producer is kept open
+     */
+    public KafkaProducerPool(Supplier<ProducerFactory<String, byte[]>> factory, int size, Duration idleTimeout) {
+        slots = new Slot[Math.max(1, size)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(factory, i);
+        }
+        idleNanos = idleTimeout.toNanos();
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "kafka-producer-pool-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, idleTimeout.toMillis() / 2);
+        reaper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private KafkaProducerPool(KafkaTemplate<String, byte[]> template) {
+        slots = new Slot[]{new Slot(template)};
+        idleNanos = Long.MAX_VALUE;
+        reaper = null;
+    }
+
+    /**
+     * Pool of single template shared by all channels, template is never closed by pool
+     */
+    public static KafkaProducerPool of(KafkaTemplate<String, byte[]> template) {
+        return new KafkaProducerPool(template);
+    }
+
+    /**
+     * Get producer of channel, it is kept open till {@link #release(int)} is called
+     */
+    public KafkaTemplate<String, byte[]> acquire(int channel) {
+        return slotOf(channel).acquire();
+    }
+
+    public void release(int channel) {
+        slotOf(channel).release();
+    }
+
+    private Slot slotOf(int channel) {
+        return slots[Math.floorMod(channel, slots.length)];
+    }
+
+    private void closeIdle() {
+        long now = System.nanoTime();
+        for (var slot : slots) {
+            try {
+                slot.closeIfIdle(now);
+            } catch (Throwable e) {
+                log.error("Unable to close idle producer", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (reaper == null) {
+            return;
+        }
+        reaper.shutdown();
+        for (var slot : slots) {
+            slot.close();
+        }
+    }
+
+    private final class Slot {
+        private final Supplier<ProducerFactory<String, byte[]>> factory;
+        private final int index;
+        /**
+         * Guards fields below, closing waits for buffered records, monitor
+         * would pin carrier of virtual thread for that time
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private ProducerFactory<String, byte[]> producerFactory;
+        private KafkaTemplate<String, byte[]> template;
+        /**
+         * Senders using template right now, it can't be closed while they exist
+         */
+        private int users;
+        private long lastUsed;
+
+        Slot(Supplier<ProducerFactory<String, byte[]>> factory, int index) {
+            this.factory = factory;
+            this.index = index;
+        }
+
+        Slot(KafkaTemplate<String, byte[]> template) {
+            this.factory = null;
+            this.index = 0;
+            this.template = template;
+        }
+
+        KafkaTemplate<String, byte[]> acquire() {
+            lock.lock();
+            try {
+                if (template == null) {
+                    log.info("Opening producer {}", index);
+                    producerFactory = factory.get();
+                    template = new KafkaTemplate<>(producerFactory);
+                }
+                users++;
+                return template;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                users--;
+                lastUsed = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void closeIfIdle(long now) {
+            lock.lock();
+            try {
+                // shared template is not owned by pool
+                if (producerFactory != null && users == 0 && now - lastUsed >= idleNanos) {
+                    log.info("Closing idle producer {}", index);
+                    close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (producerFactory == null) {
+                    return;
+                }
+                template = null;
+                var f = producerFactory;
+                producerFactory = null;
+                // waits for buffered records to be sent
+                f.reset();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
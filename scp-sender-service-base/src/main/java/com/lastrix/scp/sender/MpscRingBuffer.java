@@ -0,0 +1,105 @@
+package com.lastrix.scp.sender;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue for many producers and single consumer over
+ * preallocated array. Producers claim slot by moving tail with CAS and then
+ * publish element into it, consumer takes published elements in claim order.
+ * Only one thread may call {@link #drainTo(List, int)} at a time.
+ *
+ * @param <E>
+ */
+public final class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    /**
+     * Next slot to be claimed by producer
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Next slot to be read by consumer, written by consumer only
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Add element if there is free slot
+     *
+     * @return false if buffer is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        // slot is ours, consumer waits till we publish it
+        slots.lazySet((int) (t & mask), e);
+        return true;
+    }
+
+    /**
+     * Add all elements in order, waits for consumer if buffer is full
+     *
+     * @param onFull called while waiting, so consumer may be woken up
+     */
+    public void addAll(Collection<? extends E> l, Runnable onFull) {
+        for (E e : l) {
+            while (!offer(e)) {
+                onFull.run();
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Move up to max published elements into list
+     *
+     * @return the number of moved elements
+     */
+    public int drainTo(List<? super E> list, int max) {
+        long h = head.get();
+        int n = 0;
+        while (n < max) {
+            int i = (int) (h & mask);
+            E e = slots.get(i);
+            if (e == null) {
+                // either empty or producer claimed slot but not yet published,
+                // in later case producer will wake consumer after publishing
+                break;
+            }
+            slots.lazySet(i, null);
+            list.add(e);
+            h++;
+            n++;
+        }
+        head.lazySet(h);
+        return n;
+    }
+
+    /**
+     * Claimed, but not yet published elements are counted, so buffer may be
+     * not empty while {@link #drainTo(List, int)} moves nothing for a moment
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+}
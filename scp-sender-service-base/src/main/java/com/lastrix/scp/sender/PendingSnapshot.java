@@ -0,0 +1,126 @@
+package com.lastrix.scp.sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Local file with changes that were sent, but not yet committed to source.
+ * File is written through memory mapping into temporary file, which then
+ * atomically replaces previous snapshot. Layout: magic, version, creation
+ * time, change count, body length, body checksum and body of length
+ * prefixed encoded changes.
+ *
+ * @param <T>
+ */
+final class PendingSnapshot<T> {
+    private static final Logger log = LoggerFactory.getLogger(PendingSnapshot.class);
+    private static final int MAGIC = 0x53435053;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + 2 * Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+    private final Path tmp;
+    private final ChangeCodec<T> codec;
+    private final long maxAgeMillis;
+    private final ChangeBuffer body = new ChangeBuffer(4096);
+
+    PendingSnapshot(Path path, ChangeCodec<T> codec, Duration maxAge) {
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        this.codec = codec;
+        this.maxAgeMillis = maxAge.toMillis();
+    }
+
+    void write(Collection<T> changes) throws IOException {
+        body.reset();
+        for (T c : changes) {
+            int position = body.size();
+            body.writeInt(0);
+            codec.encode(c, body);
+            body.putInt(position, body.size() - position - Integer.BYTES);
+        }
+        var crc = new CRC32();
+        crc.update(body.array(), 0, body.size());
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + body.size());
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putLong(System.currentTimeMillis());
+            b.putInt(changes.size());
+            b.putInt(body.size());
+            b.putLong(crc.getValue());
+            b.put(body.array(), 0, body.size());
+            b.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read changes of snapshot, nothing is returned if snapshot is
+     * missing, corrupted or too old to be trusted
+     */
+    List<T> read() {
+        if (!Files.isRegularFile(path)) {
+            return List.of();
+        }
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE) {
+                log.warn("Snapshot {} is truncated, ignored", path);
+                return List.of();
+            }
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+                log.warn("Snapshot {} has unknown format, ignored", path);
+                return List.of();
+            }
+            long age = System.currentTimeMillis() - b.getLong();
+            int count = b.getInt();
+            int length = b.getInt();
+            long checksum = b.getLong();
+            if (age > maxAgeMillis) {
+                // changes may have been committed or changed by others since then
+                log.info("Snapshot {} is {} ms old, ignored", path, age);
+                return List.of();
+            }
+            if (count < 0 || length != b.remaining()) {
+                log.warn("Snapshot {} is truncated, ignored", path);
+                return List.of();
+            }
+            var data = new byte[length];
+            b.get(data);
+            var crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() != checksum) {
+                log.warn("Snapshot {} checksum mismatch, ignored", path);
+                return List.of();
+            }
+            var body = ByteBuffer.wrap(data);
+            List<T> r = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int l = body.getInt();
+                r.add(codec.decode(data, body.position(), l));
+                body.position(body.position() + l);
+            }
+            return r;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read snapshot {}, ignored", path, e);
+            return List.of();
+        }
+    }
+}
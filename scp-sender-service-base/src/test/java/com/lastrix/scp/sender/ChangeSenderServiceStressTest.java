@@ -0,0 +1,144 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.IdHasher;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives many small batches through workers with acknowledgements and failures
+ * coming from other threads, any lost wakeup leaves changes uncommitted
+ */
+class ChangeSenderServiceStressTest {
+    private static final int CHANGES = 50_000;
+    private static final int CHANNELS = 8;
+
+    @Test
+    void everyChangeIsCommitted() throws InterruptedException {
+        var pending = new ConcurrentSkipListSet<Integer>();
+        for (int i = 0; i < CHANGES; i++) {
+            pending.add(i);
+        }
+        var acks = Executors.newFixedThreadPool(4);
+        var config = new ChangeSenderConfig();
+        config.setChannels(CHANNELS);
+        config.setParallelism(4);
+        config.setMaxInFlightBatches(2);
+        config.setPollInterval(Duration.ofMillis(10));
+        config.setCommitLinger(Duration.ofMillis(1));
+        config.setRetryInitialDelay(Duration.ofMillis(1));
+        config.setRetryMaxDelay(Duration.ofMillis(5));
+        var service = new TestService(new TestSource(pending), new FlakySender(acks), config);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (!pending.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(pending.isEmpty(), "Uncommitted changes left: " + pending.size());
+        } finally {
+            service.preDestroy();
+            acks.shutdownNow();
+        }
+    }
+
+    @Test
+    void changesOfMovedChannelsAreNotLost() throws InterruptedException {
+        var pending = new ConcurrentSkipListSet<Integer>();
+        for (int i = 0; i < CHANGES; i++) {
+            pending.add(i);
+        }
+        var acks = Executors.newFixedThreadPool(4);
+        var config = new ChangeSenderConfig();
+        config.setChannels(CHANNELS);
+        config.setDynamicChannels(true);
+        config.setParallelism(4);
+        config.setPollInterval(Duration.ofMillis(10));
+        config.setCommitLinger(Duration.ofMillis(1));
+        config.setRetryInitialDelay(Duration.ofMillis(1));
+        config.setRetryMaxDelay(Duration.ofMillis(5));
+        var service = new TestService(new TestSource(pending), new FlakySender(acks), config);
+        try {
+            for (int i = 0; i < CHANNELS; i++) {
+                service.addChannel(i);
+            }
+            var random = ThreadLocalRandom.current();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (!pending.isEmpty() && System.nanoTime() < deadline) {
+                // channel goes away with queued changes and comes back later
+                int channel = random.nextInt(CHANNELS);
+                service.removeChannel(channel);
+                Thread.sleep(5);
+                service.addChannel(channel);
+                Thread.sleep(20);
+            }
+            assertTrue(pending.isEmpty(), "Uncommitted changes left: " + pending.size());
+        } finally {
+            service.preDestroy();
+            acks.shutdownNow();
+        }
+    }
+
+    private static final class TestService extends ChangeSenderService<Integer> {
+        TestService(ChangeSourceService<Integer> source, ChangeSender<Integer> sender, ChangeSenderConfig config) {
+            super(source, sender, config);
+        }
+
+        @Override
+        protected void idOf(Integer o, IdHasher id) {
+            id.putInt(o);
+        }
+
+        @Override
+        protected int channelOf(Integer o) {
+            return o % CHANNELS;
+        }
+    }
+
+    private record TestSource(ConcurrentSkipListSet<Integer> pending) implements ChangeSourceService<Integer> {
+        private static final int PAGE_SIZE = 128;
+
+        @Override
+        public List<Integer> fetch(int page) {
+            return pending.stream().skip((long) page * PAGE_SIZE).limit(PAGE_SIZE).collect(Collectors.toList());
+        }
+
+        @Override
+        public void commit(List<Integer> changes) {
+            changes.forEach(pending::remove);
+        }
+    }
+
+    /**
+     * Acknowledges from other threads after random delay, some changes fail
+     */
+    private record FlakySender(ExecutorService acks) implements ChangeSender<Integer> {
+        @Override
+        public List<Integer> send(List<Integer> changes, int channel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletionStage<List<Integer>> sendAsync(List<Integer> changes, int channel) {
+            return CompletableFuture.supplyAsync(() -> {
+                var random = ThreadLocalRandom.current();
+                if (random.nextInt(4) == 0) {
+                    LockSupport.parkNanos(random.nextInt(200_000));
+                }
+                List<Integer> sent = new ArrayList<>(changes.size());
+                for (var c : changes) {
+                    if (random.nextInt(20) != 0) {
+                        sent.add(c);
+                    }
+                }
+                return sent;
+            }, acks);
+        }
+    }
+}
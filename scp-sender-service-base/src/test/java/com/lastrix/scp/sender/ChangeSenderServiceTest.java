@@ -0,0 +1,459 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.IdHasher;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangeSenderServiceTest {
+    @Test
+    void changesNotTakenAreHandedBackToSource() throws InterruptedException {
+        // 0 and 1 come twice, 7 and 8 belong to channel without worker
+        var source = new OnceSource(List.of(0, 1, 2, 0, 1, 7, 8));
+        var service = new TestService(source, newConfig());
+        try {
+            awaitSize(source.committed, 3);
+            awaitSize(source.skipped, 4);
+            assertEquals(List.of(0, 1, 2), source.committed.stream().sorted().toList());
+            assertEquals(List.of(0, 1, 7, 8), source.skipped);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void changesReadAfterBuffersFillAreNotLost() throws InterruptedException {
+        // pages are returned once and buffers fill in the middle of a page
+        int total = 5_000;
+        var source = new StreamSource(total, 100);
+        var acks = new CompletableFuture<Void>();
+        var config = newConfig();
+        // fetcher reads pages through stream
+        config.setPrefetch(false);
+        var service = new TestService(source, new GatedSender(acks), config);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (source.position.get() < 4_000 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            // nothing is committed till now, so fetcher stopped on full buffers
+            acks.complete(null);
+            awaitSize(source.committed, total);
+            assertEquals(total, source.committed.stream().distinct().count());
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void restoredChangesReplayedBySourceAreHandedBack() throws Exception {
+        var dir = Files.createTempDirectory("scp-snapshot");
+        try {
+            var path = dir.resolve("pending.bin");
+            new PendingSnapshot<>(path, new IntCodec(), Duration.ofMinutes(1)).write(List.of(1, 2));
+            // source replays restored changes, as replication does after restart
+            var source = new OnceSource(List.of(1, 2, 3));
+            var config = newConfig();
+            config.setSnapshotPath(path);
+            var service = new TestService(source, new AckSender(), config, new IntCodec());
+            try {
+                awaitSize(source.committed, 3);
+                awaitSize(source.skipped, 2);
+                assertEquals(List.of(1, 2, 3), source.committed.stream().sorted().toList());
+                assertEquals(List.of(1, 2), source.skipped);
+            } finally {
+                service.preDestroy();
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (var f : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(f);
+            }
+        }
+    }
+
+    @Test
+    void failedChangesAreSentBeforeNewerOnes() throws InterruptedException {
+        var source = new PageSource();
+        source.pages.add(List.of(0, 1));
+        // newer changes come while failed ones wait for retry
+        var sender = new FailingOnceSender(() -> source.pages.add(List.of(2, 3)));
+        var config = newConfig();
+        config.setRetryInitialDelay(Duration.ofMillis(200));
+        config.setRetryMaxDelay(Duration.ofMillis(200));
+        var service = new TestService(source, sender, config);
+        try {
+            awaitSize(source.committed, 4);
+            assertEquals(List.of(0, 1, 2, 3), sender.sent);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void laterBatchesInFlightAreRetriedAfterFailedOne() throws InterruptedException {
+        var source = new PageSource();
+        var sender = new ManualSender();
+        var config = newConfig();
+        config.setMaxInFlightBatches(4);
+        config.setRetryInitialDelay(Duration.ofMillis(10));
+        config.setRetryMaxDelay(Duration.ofMillis(10));
+        var service = new TestService(source, sender, config);
+        try {
+            source.pages.add(List.of(0));
+            awaitSize(sender.batches, 1);
+            source.pages.add(List.of(1));
+            awaitSize(sender.batches, 2);
+            source.pages.add(List.of(2));
+            awaitSize(sender.batches, 3);
+            // second batch is acknowledged before first one fails
+            sender.complete(1, true);
+            sender.complete(0, false);
+            Thread.sleep(50);
+            // third batch is still in flight, nothing overtakes it
+            assertEquals(3, sender.batches.size());
+            assertEquals(List.of(), source.committed);
+            sender.complete(2, true);
+            awaitSize(sender.batches, 4);
+            assertEquals(List.of(0, 1, 2), sender.batches.get(3));
+            sender.complete(3, true);
+            awaitSize(source.committed, 3);
+            assertEquals(List.of(0, 1, 2), source.committed);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void acknowledgementsAreCommittedInSendOrder() throws InterruptedException {
+        var source = new PageSource();
+        var sender = new ManualSender();
+        var config = newConfig();
+        config.setMaxInFlightBatches(4);
+        var service = new TestService(source, sender, config);
+        try {
+            source.pages.add(List.of(0));
+            awaitSize(sender.batches, 1);
+            source.pages.add(List.of(1));
+            awaitSize(sender.batches, 2);
+            sender.complete(1, true);
+            Thread.sleep(50);
+            assertEquals(List.of(), source.committed);
+            sender.complete(0, true);
+            awaitSize(source.committed, 2);
+            assertEquals(List.of(0, 1), source.committed);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void lagIsRecordedOnceForChangeAndOnlyForAcknowledgedBatch() throws InterruptedException {
+        var source = new PageSource();
+        var sender = new FailingOnceSender(() -> {
+        });
+        var config = newConfig();
+        config.setRetryInitialDelay(Duration.ofMillis(10));
+        config.setRetryMaxDelay(Duration.ofMillis(10));
+        var service = new LagService(source, sender, config);
+        var registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+        source.pages.add(List.of(0, 1));
+        try {
+            awaitSize(source.committed, 2);
+            var tags = Tags.of("channel", "0");
+            // retried changes are not recorded again
+            assertEquals(2, registry.get("scp.sender.lag.source").tags(tags).timer().count());
+            assertEquals(1, registry.get("scp.sender.lag.ack").tags(tags).timer().count());
+            assertEquals(1, service.acknowledged.size());
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void acknowledgementTimeIsPassedToListener() throws InterruptedException {
+        var source = new PageSource();
+        source.pages.add(List.of(0, 1));
+        var acks = new CompletableFuture<Void>();
+        var service = new LagService(source, new GatedSender(acks), newConfig());
+        try {
+            // batch is in flight for a while before it is acknowledged
+            Thread.sleep(100);
+            long acknowledged = System.nanoTime();
+            acks.complete(null);
+            awaitSize(source.committed, 2);
+            assertEquals(1, service.acknowledged.size());
+            assertTrue(service.acknowledged.get(0) - acknowledged >= 0);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    static ChangeSenderConfig newConfig() {
+        var config = new ChangeSenderConfig();
+        config.setChannels(1);
+        config.setPollInterval(Duration.ofMillis(10));
+        config.setCommitLinger(Duration.ofMillis(1));
+        return config;
+    }
+
+    static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Numbers below 5 go to channel 0, others to channel 7
+     */
+    static final class TestService extends ChangeSenderService<Integer> {
+        TestService(ChangeSourceService<Integer> source, ChangeSenderConfig config) {
+            this(source, new AckSender(), config);
+        }
+
+        TestService(ChangeSourceService<Integer> source, ChangeSender<Integer> sender, ChangeSenderConfig config) {
+            super(source, sender, config);
+        }
+
+        TestService(ChangeSourceService<Integer> source, ChangeSender<Integer> sender, ChangeSenderConfig config, ChangeCodec<Integer> codec) {
+            super(source, sender, config, codec);
+        }
+
+        @Override
+        protected void idOf(Integer o, IdHasher id) {
+            id.putInt(o);
+        }
+
+        @Override
+        protected int channelOf(Integer o) {
+            return o < 5 ? 0 : 7;
+        }
+    }
+
+    /**
+     * Every change is a second old in source, acknowledgement times are remembered
+     */
+    static final class LagService extends ChangeSenderService<Integer> {
+        final List<Long> acknowledged = new CopyOnWriteArrayList<>();
+
+        LagService(ChangeSourceService<Integer> source, ChangeSender<Integer> sender, ChangeSenderConfig config) {
+            super(source, sender, config);
+        }
+
+        @Override
+        protected void idOf(Integer o, IdHasher id) {
+            id.putInt(o);
+        }
+
+        @Override
+        protected int channelOf(Integer o) {
+            return 0;
+        }
+
+        @Override
+        protected Instant sourceStampOf(Integer o) {
+            return Instant.now().minusSeconds(1);
+        }
+
+        @Override
+        protected void onAcknowledged(List<Integer> changes, int channel, long acknowledgedNanos) {
+            acknowledged.add(acknowledgedNanos);
+        }
+    }
+
+    /**
+     * Returns its changes once, like stream which never replays them
+     */
+    static final class OnceSource implements ChangeSourceService<Integer> {
+        private final List<Integer> changes;
+        private final AtomicBoolean read = new AtomicBoolean();
+        final List<Integer> committed = new CopyOnWriteArrayList<>();
+        final List<Integer> skipped = new CopyOnWriteArrayList<>();
+
+        OnceSource(List<Integer> changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public List<Integer> fetch(int page) {
+            return page == 0 && read.compareAndSet(false, true) ? changes : List.of();
+        }
+
+        @Override
+        public void commit(List<Integer> changes) {
+            committed.addAll(changes);
+        }
+
+        @Override
+        public void skip(List<Integer> changes) {
+            skipped.addAll(changes);
+        }
+    }
+
+    /**
+     * Returns every change once in pages of given size, like replication stream
+     */
+    static final class StreamSource implements ChangeSourceService<Integer> {
+        private final int total;
+        private final int pageSize;
+        final AtomicInteger position = new AtomicInteger();
+        final List<Integer> committed = new CopyOnWriteArrayList<>();
+
+        StreamSource(int total, int pageSize) {
+            this.total = total;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public synchronized List<Integer> fetch(int page) {
+            int from = position.get();
+            int to = Math.min(total, from + pageSize);
+            List<Integer> r = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                // all of them go to channel 0
+                r.add(-1 - i);
+            }
+            position.set(to);
+            return r;
+        }
+
+        @Override
+        public void commit(List<Integer> changes) {
+            committed.addAll(changes);
+        }
+    }
+
+    /**
+     * Returns every added page once
+     */
+    static final class PageSource implements ChangeSourceService<Integer> {
+        final Queue<List<Integer>> pages = new ConcurrentLinkedQueue<>();
+        final List<Integer> committed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<Integer> fetch(int page) {
+            var p = page == 0 ? pages.poll() : null;
+            return p == null ? List.of() : p;
+        }
+
+        @Override
+        public void commit(List<Integer> changes) {
+            committed.addAll(changes);
+        }
+    }
+
+    /**
+     * Fails the first batch and runs callback then, acknowledges others
+     */
+    private static final class FailingOnceSender implements ChangeSender<Integer> {
+        private final Runnable onFailure;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        final List<Integer> sent = new CopyOnWriteArrayList<>();
+
+        FailingOnceSender(Runnable onFailure) {
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public List<Integer> send(List<Integer> changes, int channel) {
+            if (failed.compareAndSet(false, true)) {
+                onFailure.run();
+                return List.of();
+            }
+            sent.addAll(changes);
+            return changes;
+        }
+    }
+
+    /**
+     * Batches complete when test says so
+     */
+    private static final class ManualSender implements ChangeSender<Integer> {
+        final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        private final List<CompletableFuture<List<Integer>>> results = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<Integer> send(List<Integer> changes, int channel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletionStage<List<Integer>> sendAsync(List<Integer> changes, int channel) {
+            var r = new CompletableFuture<List<Integer>>();
+            results.add(r);
+            batches.add(List.copyOf(changes));
+            return r;
+        }
+
+        void complete(int batch, boolean acknowledged) {
+            results.get(batch).complete(acknowledged ? batches.get(batch) : List.of());
+        }
+    }
+
+    /**
+     * Acknowledges batches once gate is open
+     */
+    private record GatedSender(CompletableFuture<Void> gate) implements ChangeSender<Integer> {
+        @Override
+        public List<Integer> send(List<Integer> changes, int channel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletionStage<List<Integer>> sendAsync(List<Integer> changes, int channel) {
+            return gate.thenApply(ignored -> changes);
+        }
+    }
+
+    private static final class IntCodec implements ChangeCodec<Integer> {
+        @Override
+        public void encode(Integer change, ChangeBuffer out) {
+            out.writeInt(change);
+        }
+
+        @Override
+        public Integer decode(byte[] data, int offset, int length) {
+            return ByteBuffer.wrap(data, offset, length).getInt();
+        }
+    }
+
+    private static final class AckSender implements ChangeSender<Integer> {
+        @Override
+        public List<Integer> send(List<Integer> changes, int channel) {
+            return changes;
+        }
+
+        @Override
+        public CompletionStage<List<Integer>> sendAsync(List<Integer> changes, int channel) {
+            return CompletableFuture.completedFuture(changes);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.lastrix.scp.sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChangeSourceServiceTest {
+    @Test
+    void streamFinishesPageWhenConsumerStops() {
+        var source = new PagedSource(List.of(List.of(1, 2, 3), List.of(4, 5)));
+        List<Integer> consumed = new ArrayList<>();
+        int count = source.stream(c -> {
+            consumed.add(c);
+            return c < 2;
+        });
+        assertEquals(List.of(1, 2, 3), consumed);
+        assertEquals(3, count);
+        assertEquals(1, source.reads, "next page must not be read");
+    }
+
+    @Test
+    void streamReadsAllPagesWhileConsumerAccepts() {
+        var source = new PagedSource(List.of(List.of(1, 2), List.of(3)));
+        List<Integer> consumed = new ArrayList<>();
+        assertEquals(3, source.stream(consumed::add));
+        assertEquals(List.of(1, 2, 3), consumed);
+    }
+
+    private static final class PagedSource implements ChangeSourceService<Integer> {
+        private final List<List<Integer>> pages;
+        private int reads;
+
+        PagedSource(List<List<Integer>> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public List<Integer> fetch(int page) {
+            reads++;
+            return page < pages.size() ? pages.get(page) : List.of();
+        }
+
+        @Override
+        public void commit(List<Integer> changes) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lastrix.scp.sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelBreakerTest {
+    private static final long INITIAL = Duration.ofMillis(100).toNanos();
+    private static final long MAX = Duration.ofMillis(400).toNanos();
+
+    @Test
+    void delayDoublesTillMax() {
+        var b = new ChannelBreaker(Duration.ofNanos(INITIAL), Duration.ofNanos(MAX), 1000);
+        assertDelay(INITIAL, b.onFailure());
+        assertDelay(2 * INITIAL, b.onFailure());
+        assertDelay(MAX, b.onFailure());
+        for (int i = 0; i < 100; i++) {
+            assertDelay(MAX, b.onFailure());
+        }
+        assertFalse(b.isOpen());
+    }
+
+    @Test
+    void successResetsDelay() {
+        var b = new ChannelBreaker(Duration.ofNanos(INITIAL), Duration.ofNanos(MAX), 1000);
+        b.onFailure();
+        b.onFailure();
+        b.onSuccess();
+        assertDelay(INITIAL, b.onFailure());
+    }
+
+    @Test
+    void opensAfterThreshold() {
+        var b = new ChannelBreaker(Duration.ofNanos(INITIAL), Duration.ofNanos(MAX), 3);
+        b.onFailure();
+        b.onFailure();
+        assertFalse(b.isOpen());
+        assertEquals(8, b.allowedInFlight(8));
+        b.onFailure();
+        assertTrue(b.isOpen());
+        assertEquals(0, b.allowedInFlight(8));
+    }
+
+    @Test
+    void halfOpenAllowsSingleBatch() {
+        var b = openBreaker();
+        b.halfOpen();
+        assertFalse(b.isOpen());
+        assertEquals(1, b.allowedInFlight(8));
+        b.onSuccess();
+        assertFalse(b.isOpen());
+        assertEquals(8, b.allowedInFlight(8));
+        // failures are counted from scratch after success
+        b.onFailure();
+        assertFalse(b.isOpen());
+    }
+
+    @Test
+    void failureWhileHalfOpenOpensAgain() {
+        var b = openBreaker();
+        b.halfOpen();
+        assertDelay(MAX, b.onFailure());
+        assertTrue(b.isOpen());
+        assertEquals(0, b.allowedInFlight(8));
+    }
+
+    private static ChannelBreaker openBreaker() {
+        var b = new ChannelBreaker(Duration.ofNanos(INITIAL), Duration.ofNanos(MAX), 3);
+        for (int i = 0; i < 3; i++) {
+            b.onFailure();
+        }
+        assertTrue(b.isOpen());
+        return b;
+    }
+
+    /**
+     * Half of delay is random
+     */
+    private static void assertDelay(long expected, long actual) {
+        assertTrue(actual >= expected / 2 && actual <= expected, "delay " + actual + " is not within half of " + expected);
+    }
+}
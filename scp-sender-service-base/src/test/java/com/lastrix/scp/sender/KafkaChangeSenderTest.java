@@ -0,0 +1,152 @@
+package com.lastrix.scp.sender;
+
+import com.lastrix.scp.common.ChangeEnvelope;
+import com.lastrix.scp.common.EnvelopeCompression;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KafkaChangeSenderTest {
+    private static final String TOPIC = "topic-0";
+    private static final int PARTITIONS = 4;
+
+    @Test
+    void envelopeRoundTripForEveryCompression() {
+        // empty, short and long changes, long ones are compressible
+        List<String> changes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            changes.add("change-" + i + "-" + "x".repeat(i * 7));
+        }
+        changes.add("");
+        for (var compression : EnvelopeCompression.values()) {
+            var producer = new TestProducer();
+            var sender = newSender(producer, null, new EnvelopeConfig(1000, 1024 * 1024, compression), null);
+            assertEquals(changes, sender.send(changes, 0));
+            var records = producer.history();
+            assertEquals(1, records.size(), compression.name());
+            assertEquals(changes, unpack(records.get(0)), compression.name());
+            assertEquals(ChangeEnvelope.VERSION, records.get(0).headers().lastHeader(ChangeEnvelope.HEADER).value()[0]);
+        }
+    }
+
+    @Test
+    void envelopeIsSplitByMaxChanges() {
+        var changes = List.of("a", "b", "c", "d", "e", "f", "g");
+        var producer = new TestProducer();
+        var sender = newSender(producer, null, new EnvelopeConfig(3, 1024 * 1024, EnvelopeCompression.NONE), null);
+        sender.send(changes, 0);
+        var records = producer.history();
+        assertEquals(List.of(List.of("a", "b", "c"), List.of("d", "e", "f"), List.of("g")), records.stream().map(KafkaChangeSenderTest::unpack).toList());
+    }
+
+    @Test
+    void envelopeIsSplitByMaxBytes() {
+        // every entry takes 4 + 4 bytes, envelope is closed once body reaches limit
+        var changes = List.of("0000", "1111", "2222", "3333", "4444");
+        var producer = new TestProducer();
+        var sender = newSender(producer, null, new EnvelopeConfig(100, 2 * (ChangeEnvelope.ENTRY_OVERHEAD + 4), EnvelopeCompression.LZ4), null);
+        sender.send(changes, 0);
+        var records = producer.history();
+        assertEquals(List.of(List.of("0000", "1111"), List.of("2222", "3333"), List.of("4444")), records.stream().map(KafkaChangeSenderTest::unpack).toList());
+    }
+
+    @Test
+    void envelopesArePlacedByConfiguredPartitioner() {
+        List<String> changes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            changes.add("c" + i);
+        }
+        var producer = new TestProducer();
+        // key is the change itself, partitioner puts it by its last digit
+        var sender = newSender(producer, x -> x, new EnvelopeConfig(100, 1024 * 1024, EnvelopeCompression.NONE), new LastDigitPartitioner());
+        sender.send(changes, 0);
+        var records = producer.history();
+        assertEquals(PARTITIONS, records.size());
+        List<String> all = new ArrayList<>();
+        for (var r : records) {
+            var unpacked = unpack(r);
+            for (var c : unpacked) {
+                assertEquals((c.charAt(c.length() - 1) - '0') % PARTITIONS, r.partition(), c);
+            }
+            all.addAll(unpacked);
+        }
+        assertEquals(Set.copyOf(changes), Set.copyOf(all));
+    }
+
+    private static KafkaChangeSender<String> newSender(TestProducer producer, Function<String, String> key, EnvelopeConfig envelope, Partitioner partitioner) {
+        var template = new KafkaTemplate<String, byte[]>(() -> producer);
+        return new KafkaChangeSender<>(KafkaProducerPool.of(template), new StringCodec(), "topic-", key, envelope, partitioner);
+    }
+
+    private static List<String> unpack(ProducerRecord<String, byte[]> record) {
+        List<String> r = new ArrayList<>();
+        ChangeEnvelope.unpack(record.value(), (data, offset, length) -> r.add(new String(data, offset, length, StandardCharsets.UTF_8)));
+        return r;
+    }
+
+    private static Cluster cluster() {
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, Node.noNode(), new Node[0], new Node[0]));
+        }
+        return new Cluster(null, List.of(), partitions, Set.of(), Set.of());
+    }
+
+    private static final class TestProducer extends MockProducer<String, byte[]> {
+        TestProducer() {
+            super(cluster(), true, new DefaultPartitioner(), new StringSerializer(), new ByteArraySerializer());
+        }
+
+        @Override
+        public void close(Duration timeout) {
+            // template closes producer after every send, this one is shared
+        }
+    }
+
+    private static final class LastDigitPartitioner implements Partitioner {
+        @Override
+        public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+            var s = (String) key;
+            return (s.charAt(s.length() - 1) - '0') % cluster.partitionCountForTopic(topic);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void configure(Map<String, ?> configs) {
+        }
+    }
+
+    private static final class StringCodec implements ChangeCodec<String> {
+        @Override
+        public void encode(String change, ChangeBuffer out) {
+            var b = change.getBytes(StandardCharsets.UTF_8);
+            out.write(b, 0, b.length);
+        }
+
+        @Override
+        public String decode(byte[] data, int offset, int length) {
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+}
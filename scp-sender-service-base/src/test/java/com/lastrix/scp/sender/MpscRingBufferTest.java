@@ -0,0 +1,80 @@
+package com.lastrix.scp.sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 50_000;
+
+    @Test
+    void offerFailsWhenFull() {
+        var q = new MpscRingBuffer<Integer>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse(q.offer(4));
+        var l = new ArrayList<Integer>();
+        assertEquals(2, q.drainTo(l, 2));
+        assertTrue(q.offer(4));
+        assertEquals(3, q.drainTo(l, 10));
+        assertEquals(List.of(0, 1, 2, 3, 4), l);
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    void everyElementDrainedOnceInProducerOrder() throws InterruptedException {
+        var q = new MpscRingBuffer<Long>(256);
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long producer = p;
+            var t = new Thread(() -> {
+                await(start);
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    // producer id in high bits, sequence in low bits
+                    while (!q.offer((producer << 32) | i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        var next = new long[PRODUCERS];
+        var batch = new ArrayList<Long>(128);
+        long received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received < (long) PRODUCERS * PER_PRODUCER) {
+            assertTrue(System.nanoTime() < deadline, "Timed out, received " + received);
+            batch.clear();
+            if (q.drainTo(batch, 128) == 0) {
+                Thread.yield();
+            }
+            for (long v : batch) {
+                int producer = (int) (v >>> 32);
+                assertEquals(next[producer]++, v & 0xFFFFFFFFL, "Lost or reordered element");
+            }
+            received += batch.size();
+        }
+        for (var t : threads) {
+            t.join();
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.lastrix.scp.common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Envelope packs many encoded changes into single record. Layout:
+ * version byte, compression byte, change count, body length and
+ * compressed body. Body is a sequence of length prefixed changes.
+ * All numbers are big endian ints.
+ * <p>
+ * Records holding envelope are marked with {@link #HEADER}, so receivers
+ * may read both envelopes and plain records from the same topic.
+ */
+public final class ChangeEnvelope {
+    /**
+     * Name of record header marking envelope, value is format version
+     */
+    public static final String HEADER = "scp-envelope";
+    public static final byte VERSION = 1;
+    /**
+     * Prefix size of each change in body
+     */
+    public static final int ENTRY_OVERHEAD = Integer.BYTES;
+    private static final int HEADER_SIZE = 2 + 2 * Integer.BYTES;
+    /**
+     * Refuse to inflate suspiciously large bodies
+     */
+    private static final int MAX_BODY_LENGTH = 64 * 1024 * 1024;
+
+    private ChangeEnvelope() {
+    }
+
+    /**
+     * Build envelope from body
+     *
+     * @param body        the sequence of length prefixed changes
+     * @param bodyLength  the number of used bytes in body
+     * @param count       the number of changes in body
+     * @param compression the compression of body
+     * @return the envelope bytes
+     */
+    public static byte[] pack(byte[] body, int bodyLength, int count, EnvelopeCompression compression) {
+        var r = new byte[HEADER_SIZE + compression.maxCompressedLength(bodyLength)];
+        var b = ByteBuffer.wrap(r);
+        b.put(VERSION);
+        b.put((byte) compression.getId());
+        b.putInt(count);
+        b.putInt(bodyLength);
+        int size = HEADER_SIZE + compression.compress(body, bodyLength, r, HEADER_SIZE);
+        if (size == r.length) {
+            return r;
+        }
+        var trimmed = new byte[size];
+        System.arraycopy(r, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Read each change from envelope
+     *
+     * @param envelope the envelope bytes
+     * @param consumer receives every change in order
+     * @return the number of changes in envelope
+     * @throws IllegalArgumentException if envelope is malformed
+     */
+    public static int unpack(byte[] envelope, EntryConsumer consumer) {
+        try {
+            var h = ByteBuffer.wrap(envelope);
+            var version = h.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported envelope version: " + version);
+            }
+            var compression = EnvelopeCompression.forId(h.get());
+            int count = h.getInt();
+            int bodyLength = h.getInt();
+            if (count < 0 || bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+                throw new IllegalArgumentException("Malformed envelope header");
+            }
+            var body = new byte[bodyLength];
+            compression.decompress(envelope, HEADER_SIZE, envelope.length - HEADER_SIZE, body);
+            var b = ByteBuffer.wrap(body);
+            for (int i = 0; i < count; i++) {
+                int length = b.getInt();
+                if (length < 0 || length > b.remaining()) {
+                    throw new IllegalArgumentException("Malformed envelope entry");
+                }
+                consumer.accept(body, b.position(), length);
+                b.position(b.position() + length);
+            }
+            return count;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated envelope", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(byte[] data, int offset, int length);
+    }
+}
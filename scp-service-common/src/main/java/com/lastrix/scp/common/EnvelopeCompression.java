@@ -0,0 +1,119 @@
+package com.lastrix.scp.common;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Compression of envelope body, identifier is stored in envelope header
+ */
+public enum EnvelopeCompression {
+    NONE(0) {
+        @Override
+        public int maxCompressedLength(int length) {
+            return length;
+        }
+
+        @Override
+        public int compress(byte[] src, int length, byte[] dst, int dstOffset) {
+            System.arraycopy(src, 0, dst, dstOffset, length);
+            return length;
+        }
+
+        @Override
+        public void decompress(byte[] src, int offset, int length, byte[] dst) {
+            if (length != dst.length) {
+                throw new IllegalArgumentException("Body length mismatch");
+            }
+            System.arraycopy(src, offset, dst, 0, length);
+        }
+    },
+    /**
+     * Fast with moderate ratio, good default for latency sensitive topics
+     */
+    LZ4(1) {
+        private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+        @Override
+        public int maxCompressedLength(int length) {
+            return COMPRESSOR.maxCompressedLength(length);
+        }
+
+        @Override
+        public int compress(byte[] src, int length, byte[] dst, int dstOffset) {
+            return COMPRESSOR.compress(src, 0, length, dst, dstOffset, dst.length - dstOffset);
+        }
+
+        @Override
+        public void decompress(byte[] src, int offset, int length, byte[] dst) {
+            if (DECOMPRESSOR.decompress(src, offset, length, dst, 0, dst.length) != dst.length) {
+                throw new IllegalArgumentException("Body length mismatch");
+            }
+        }
+    },
+    /**
+     * Better ratio for more cpu
+     */
+    ZSTD(2) {
+        private static final int LEVEL = 3;
+
+        @Override
+        public int maxCompressedLength(int length) {
+            return (int) Zstd.compressBound(length);
+        }
+
+        @Override
+        public int compress(byte[] src, int length, byte[] dst, int dstOffset) {
+            return (int) check(Zstd.compressByteArray(dst, dstOffset, dst.length - dstOffset, src, 0, length, LEVEL));
+        }
+
+        @Override
+        public void decompress(byte[] src, int offset, int length, byte[] dst) {
+            if (check(Zstd.decompressByteArray(dst, 0, dst.length, src, offset, length)) != dst.length) {
+                throw new IllegalArgumentException("Body length mismatch");
+            }
+        }
+
+        private static long check(long r) {
+            if (Zstd.isError(r)) {
+                throw new IllegalArgumentException("Zstd failure: " + Zstd.getErrorName(r));
+            }
+            return r;
+        }
+    };
+
+    private final int id;
+
+    EnvelopeCompression(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public abstract int maxCompressedLength(int length);
+
+    /**
+     * Compress first length bytes of src into dst
+     *
+     * @return the compressed length
+     */
+    public abstract int compress(byte[] src, int length, byte[] dst, int dstOffset);
+
+    /**
+     * Decompress src range into dst, whole dst must be filled
+     */
+    public abstract void decompress(byte[] src, int offset, int length, byte[] dst);
+
+    public static EnvelopeCompression forId(int id) {
+        for (var c : values()) {
+            if (c.id == id) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + id);
+    }
+}
@@ -0,0 +1,100 @@
+package com.lastrix.scp.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How service threads are run. Virtual threads are looked up at runtime, so
+ * the code still builds for java 17 and falls back to platform threads on
+ * runtimes without them.
+ */
+public enum ExecutionMode {
+    /**
+     * Daemon platform threads, sending jobs share pool of fixed parallelism
+     */
+    PLATFORM,
+    /**
+     * Virtual threads, every sending job gets its own thread, so blocking
+     * calls do not hold platform threads. Thread blocked inside monitor still
+     * pins its carrier, so hot paths use locks and JDBC driver must be 42.6+,
+     * monitors left in libraries may pin for the time they block
+     */
+    VIRTUAL;
+
+    private static final VirtualThreads VIRTUAL_THREADS = VirtualThreads.lookup();
+
+    /**
+     * Mode which is actually used on this runtime
+     */
+    public ExecutionMode effective() {
+        return this == VIRTUAL && VIRTUAL_THREADS == null ? PLATFORM : this;
+    }
+
+    /**
+     * Create not started thread
+     */
+    public Thread newThread(Runnable r, String name) {
+        if (effective() == VIRTUAL) {
+            return VIRTUAL_THREADS.factory(name, false).newThread(r);
+        }
+        var t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Create executor for short jobs
+     *
+     * @param parallelism the number of threads in platform mode
+     * @param name        the thread name prefix in virtual mode
+     */
+    public ExecutorService newTaskExecutor(int parallelism, String name) {
+        if (effective() == VIRTUAL) {
+            return VIRTUAL_THREADS.executor(VIRTUAL_THREADS.factory(name + "-", true));
+        }
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Reflective access to virtual thread api
+     */
+    private record VirtualThreads(Method ofVirtual, Method name, Method numberedName, Method factory, Method executor) {
+        static VirtualThreads lookup() {
+            try {
+                var builder = Class.forName("java.lang.Thread$Builder");
+                var r = new VirtualThreads(
+                        Thread.class.getMethod("ofVirtual"),
+                        builder.getMethod("name", String.class),
+                        builder.getMethod("name", String.class, long.class),
+                        builder.getMethod("factory"),
+                        Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class));
+                // preview runtimes without --enable-preview fail here
+                r.factory("probe", false);
+                return r;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        ThreadFactory factory(String threadName, boolean numbered) {
+            try {
+                var b = ofVirtual.invoke(null);
+                b = numbered ? numberedName.invoke(b, threadName, 0L) : name.invoke(b, threadName);
+                return (ThreadFactory) factory.invoke(b);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create virtual thread factory", e);
+            }
+        }
+
+        ExecutorService executor(ThreadFactory threadFactory) {
+            try {
+                return (ExecutorService) executor.invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create virtual thread executor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.lastrix.scp.common;
+
+import java.util.Arrays;
+
+/**
+ * Set of 128 bit fingerprints with fixed capacity, once full the oldest
+ * fingerprint is evicted. Fingerprints are kept in ring of primitive arrays
+ * in insertion order, open addressed int index points into ring. Nothing is
+ * allocated after construction, each tracked identifier takes 16 bytes of ring
+ * and 5 to 11 bytes of index, about 24 bytes for power of two capacity.
+ * <p>
+ * Different identifiers may share fingerprint with negligible probability,
+ * such identifier would be treated as duplicate. Not thread safe.
+ */
+public final class FingerprintSet {
+    private static final int EMPTY = -1;
+
+    private final long[] high;
+    private final long[] low;
+    /**
+     * Ring positions by fingerprint hash, EMPTY for free slot
+     */
+    private final int[] index;
+    private final int indexMask;
+    /**
+     * Ring positions whose fingerprint was removed before eviction
+     */
+    private final long[] removed;
+    /**
+     * Position of next insert in ring, the oldest fingerprint when full
+     */
+    private int next;
+    /**
+     * Ring positions written so far, up to capacity
+     */
+    private int used;
+    private int size;
+
+    public FingerprintSet(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        high = new long[capacity];
+        low = new long[capacity];
+        // load factor stays between 0.375 and 0.75, 0.5 for power of two capacity
+        int indexSize = Integer.highestOneBit((int) Math.min(1 << 30, capacity * 4L / 3)) << 1;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+        Arrays.fill(index, EMPTY);
+        removed = new long[(capacity + 63) >>> 6];
+    }
+
+    public boolean add(IdHasher h) {
+        return add(h.high(), h.low());
+    }
+
+    public boolean contains(IdHasher h) {
+        return contains(h.high(), h.low());
+    }
+
+    /**
+     * Add fingerprint
+     *
+     * @return true if fingerprint was not present
+     */
+    public boolean add(long hi, long lo) {
+        int slot = slotOf(hi, lo);
+        if (index[slot] != EMPTY) {
+            return false;
+        }
+        if (used == high.length) {
+            if ((removed[next >>> 6] & (1L << next)) != 0) {
+                removed[next >>> 6] &= ~(1L << next);
+            } else {
+                // slot may move during removal, so we search again
+                removeAt(findSlot(high[next], low[next]));
+                slot = slotOf(hi, lo);
+                size--;
+            }
+        } else {
+            used++;
+        }
+        size++;
+        high[next] = hi;
+        low[next] = lo;
+        index[slot] = next;
+        next = next + 1 == high.length ? 0 : next + 1;
+        return true;
+    }
+
+    public boolean remove(IdHasher h) {
+        return remove(h.high(), h.low());
+    }
+
+    /**
+     * Remove fingerprint, its ring position is skipped on eviction
+     *
+     * @return true if fingerprint was present
+     */
+    public boolean remove(long hi, long lo) {
+        int slot = slotOf(hi, lo);
+        int p = index[slot];
+        if (p == EMPTY) {
+            return false;
+        }
+        removeAt(slot);
+        removed[p >>> 6] |= 1L << p;
+        size--;
+        return true;
+    }
+
+    public boolean contains(long hi, long lo) {
+        return index[slotOf(hi, lo)] != EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return high.length;
+    }
+
+    /**
+     * Find slot holding fingerprint or empty slot where it should be placed
+     */
+    private int slotOf(long hi, long lo) {
+        int slot = (int) lo & indexMask;
+        int p;
+        while ((p = index[slot]) != EMPTY && (high[p] != hi || low[p] != lo)) {
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    private int findSlot(long hi, long lo) {
+        int slot = slotOf(hi, lo);
+        if (index[slot] == EMPTY) {
+            throw new IllegalStateException("Fingerprint is missing from index");
+        }
+        return slot;
+    }
+
+    private void removeAt(int slot) {
+        // backward shift deletion keeps probe chains without tombstones
+        int free = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & indexMask;
+            int p = index[i];
+            if (p == EMPTY) {
+                break;
+            }
+            int home = (int) low[p] & indexMask;
+            // entry may move to free slot only if free slot is between its home and current slot
+            if (((i - home) & indexMask) >= ((i - free) & indexMask)) {
+                index[free] = p;
+                free = i;
+            }
+        }
+        index[free] = EMPTY;
+    }
+}
@@ -0,0 +1,85 @@
+package com.lastrix.scp.common;
+
+import java.util.UUID;
+
+/**
+ * Builds 128 bit fingerprint of change identifier from its parts, so no
+ * key object is needed. Instance is reused, call {@link #reset()} before
+ * hashing next identifier. Not thread safe.
+ */
+public final class IdHasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private int length;
+    private boolean finished;
+    private long high;
+    private long low;
+
+    public IdHasher reset() {
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        finished = false;
+        return this;
+    }
+
+    public IdHasher putLong(long v) {
+        // murmur3 128 block step, one long per lane
+        h1 ^= Long.rotateLeft(v * C1, 31) * C2;
+        h1 = Long.rotateLeft(h1, 27) + h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= Long.rotateLeft(v * C2, 33) * C1;
+        h2 = Long.rotateLeft(h2, 31) + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+        length++;
+        finished = false;
+        return this;
+    }
+
+    public IdHasher putInt(int v) {
+        return putLong(v);
+    }
+
+    public IdHasher putUUID(UUID v) {
+        return putLong(v.getMostSignificantBits()).putLong(v.getLeastSignificantBits());
+    }
+
+    public long high() {
+        finish();
+        return high;
+    }
+
+    public long low() {
+        finish();
+        return low;
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        long a = h1 ^ length;
+        long b = h2 ^ length;
+        a += b;
+        b += a;
+        a = fmix(a);
+        b = fmix(b);
+        a += b;
+        b += a;
+        high = a;
+        low = b;
+        finished = true;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,176 @@
+package com.lastrix.scp.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FingerprintSetTest {
+    /**
+     * Index of set with capacity 4 has 8 slots, home slot is lower bits of low part
+     */
+    private static final int SMALL_CAPACITY = 4;
+    private static final int SMALL_INDEX_MASK = 7;
+
+    @Test
+    void addAndContains() {
+        var s = new FingerprintSet(16);
+        assertFalse(s.contains(1, 2));
+        assertTrue(s.add(1, 2));
+        assertFalse(s.add(1, 2));
+        assertTrue(s.contains(1, 2));
+        assertFalse(s.contains(2, 2));
+        assertFalse(s.contains(1, 3));
+        assertEquals(1, s.size());
+        assertEquals(16, s.capacity());
+    }
+
+    @Test
+    void fingerprintsSharingHomeSlotAreDistinct() {
+        var s = new FingerprintSet(SMALL_CAPACITY);
+        // same low part, so same home slot, only high part differs
+        for (int i = 0; i < SMALL_CAPACITY; i++) {
+            assertTrue(s.add(i, 3));
+        }
+        for (int i = 0; i < SMALL_CAPACITY; i++) {
+            assertTrue(s.contains(i, 3));
+        }
+        assertFalse(s.contains(SMALL_CAPACITY, 3));
+        assertEquals(SMALL_CAPACITY, s.size());
+    }
+
+    @Test
+    void probeChainWrapsAroundIndexEnd() {
+        var s = new FingerprintSet(SMALL_CAPACITY);
+        // all of them start at the last slot, so chain continues from slot 0
+        assertTrue(s.add(1, SMALL_INDEX_MASK));
+        assertTrue(s.add(2, SMALL_INDEX_MASK));
+        assertTrue(s.add(3, SMALL_INDEX_MASK));
+        // home slot 0 is taken by wrapped entry
+        assertTrue(s.add(4, SMALL_INDEX_MASK + 1));
+        assertTrue(s.contains(1, SMALL_INDEX_MASK));
+        assertTrue(s.contains(2, SMALL_INDEX_MASK));
+        assertTrue(s.contains(3, SMALL_INDEX_MASK));
+        assertTrue(s.contains(4, SMALL_INDEX_MASK + 1));
+    }
+
+    @Test
+    void removeShiftsFollowingEntriesBack() {
+        var s = new FingerprintSet(SMALL_CAPACITY);
+        assertTrue(s.add(1, SMALL_INDEX_MASK));
+        assertTrue(s.add(2, SMALL_INDEX_MASK));
+        assertTrue(s.add(3, SMALL_INDEX_MASK + 1));
+        assertTrue(s.add(4, SMALL_INDEX_MASK));
+        // entries after removed one, including wrapped ones, must stay reachable
+        assertTrue(s.remove(1, SMALL_INDEX_MASK));
+        assertFalse(s.remove(1, SMALL_INDEX_MASK));
+        assertFalse(s.contains(1, SMALL_INDEX_MASK));
+        assertTrue(s.contains(2, SMALL_INDEX_MASK));
+        assertTrue(s.contains(3, SMALL_INDEX_MASK + 1));
+        assertTrue(s.contains(4, SMALL_INDEX_MASK));
+        assertTrue(s.remove(3, SMALL_INDEX_MASK + 1));
+        assertTrue(s.contains(2, SMALL_INDEX_MASK));
+        assertTrue(s.contains(4, SMALL_INDEX_MASK));
+        assertEquals(2, s.size());
+    }
+
+    @Test
+    void oldestIsEvictedAtCapacity() {
+        var s = new FingerprintSet(SMALL_CAPACITY);
+        for (int i = 0; i < SMALL_CAPACITY; i++) {
+            assertTrue(s.add(i, i));
+        }
+        assertTrue(s.add(10, 10));
+        assertFalse(s.contains(0, 0));
+        for (int i = 1; i < SMALL_CAPACITY; i++) {
+            assertTrue(s.contains(i, i));
+        }
+        assertEquals(SMALL_CAPACITY, s.size());
+        // removed one frees its ring position, nothing else is evicted there
+        assertTrue(s.remove(1, 1));
+        assertTrue(s.add(11, 11));
+        assertTrue(s.contains(2, 2));
+        assertTrue(s.contains(3, 3));
+        assertTrue(s.contains(10, 10));
+        assertTrue(s.contains(11, 11));
+        assertEquals(SMALL_CAPACITY, s.size());
+        // evicted fingerprint may be added again
+        assertTrue(s.add(0, 0));
+        assertFalse(s.contains(2, 2));
+    }
+
+    @Test
+    void behavesLikeRingOfIdentifiers() {
+        int capacity = 64;
+        var s = new FingerprintSet(capacity);
+        var model = new RingModel(capacity);
+        var random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // few distinct values, so there are many duplicates and collisions
+            long hi = random.nextInt(4);
+            long lo = random.nextInt(300);
+            switch (random.nextInt(4)) {
+                case 0, 1 -> assertEquals(model.add(hi, lo), s.add(hi, lo));
+                case 2 -> assertEquals(model.remove(hi, lo), s.remove(hi, lo));
+                default -> assertEquals(model.contains(hi, lo), s.contains(hi, lo));
+            }
+            assertEquals(model.size(), s.size());
+        }
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new FingerprintSet(0));
+    }
+
+    /**
+     * Reference implementation, identifiers are kept in ring positions
+     * of insertion, removed ones leave their position empty
+     */
+    private static final class RingModel {
+        private final Key[] ring;
+        private final Map<Key, Integer> positions = new HashMap<>();
+        private int next;
+
+        RingModel(int capacity) {
+            ring = new Key[capacity];
+        }
+
+        boolean add(long hi, long lo) {
+            var k = new Key(hi, lo);
+            if (positions.containsKey(k)) {
+                return false;
+            }
+            if (ring[next] != null) {
+                positions.remove(ring[next]);
+            }
+            ring[next] = k;
+            positions.put(k, next);
+            next = (next + 1) % ring.length;
+            return true;
+        }
+
+        boolean remove(long hi, long lo) {
+            var p = positions.remove(new Key(hi, lo));
+            if (p == null) {
+                return false;
+            }
+            ring[p] = null;
+            return true;
+        }
+
+        boolean contains(long hi, long lo) {
+            return positions.containsKey(new Key(hi, lo));
+        }
+
+        int size() {
+            return positions.size();
+        }
+    }
+
+    private record Key(long hi, long lo) {
+    }
+}
@@ -0,0 +1,12 @@
+package com.lastrix.scp.writesender.cfg;
+
+/**
+ * Payload format of kafka messages
+ */
+public enum CodecType {
+    JSON,
+    /**
+     * Compact fixed layout, both sides must use it
+     */
+    BINARY
+}
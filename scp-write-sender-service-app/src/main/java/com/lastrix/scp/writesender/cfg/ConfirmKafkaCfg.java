@@ -1,14 +1,15 @@
 package com.lastrix.scp.writesender.cfg;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lastrix.scp.receiver.ChangeDecoder;
 import com.lastrix.scp.receiver.ChangeReceiver;
+import com.lastrix.scp.receiver.JsonChangeDecoder;
 import com.lastrix.scp.receiver.KafkaChangeReceiver;
+import com.lastrix.scp.writesender.codec.EnrolleeSelectIdBinaryCodec;
 import com.lastrix.scp.writesender.model.EnrolleeSelectId;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -20,15 +21,13 @@ import java.util.Map;
 
 @Configuration
 public class ConfirmKafkaCfg {
-    private static final Logger log = LoggerFactory.getLogger(ConfirmKafkaCfg.class);
-
     private static final int ONE_KB = 1024;
     private static final int ONE_MB = 1024 * ONE_KB;
     @Value("${scp.kafka.url}")
     private String kafkaURL;
 
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public ConsumerFactory<String, byte[]> consumerFactory() {
         return new DefaultKafkaConsumerFactory<>(kafkaConsumerProperties());
     }
 
@@ -38,7 +37,7 @@ public class ConfirmKafkaCfg {
         cfg.put(ConsumerConfig.GROUP_ID_CONFIG, "write-sender");
         cfg.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         // disabled for error handling
-        cfg.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        cfg.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         cfg.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, true);
         cfg.put(ConsumerConfig.RETRY_BACKOFF_MS_CONFIG, 500);
 //        cfg.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
@@ -54,18 +53,15 @@ public class ConfirmKafkaCfg {
 
     @Bean
     public ChangeReceiver<EnrolleeSelectId> enrolleeSelectIdChangeReceiver(
-            ConsumerFactory<String, String> factory,
+            ConsumerFactory<String, byte[]> factory,
             ObjectMapper mapper,
-            @Value("${scp.kafka.topics.confirm}") String topic) {
-        return new KafkaChangeReceiver<>(factory.createConsumer(), x -> parseSafe(mapper, x), topic);
-    }
-
-    private EnrolleeSelectId parseSafe(ObjectMapper mapper, String x) {
-        try {
-            return mapper.readValue(x, EnrolleeSelectId.class);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to parse from json: {}", x, e);
-            return null;
-        }
+            @Value("${scp.kafka.topics.confirm}") String topic,
+            @Value("${scp.kafka.codec.confirm}") CodecType codecType) {
+        // decoding failures are logged and skipped by receiver
+        ChangeDecoder<EnrolleeSelectId> decoder = switch (codecType) {
+            case JSON -> new JsonChangeDecoder<>(mapper, EnrolleeSelectId.class);
+            case BINARY -> new EnrolleeSelectIdBinaryCodec();
+        };
+        return new KafkaChangeReceiver<>(factory.createConsumer(), decoder, topic);
     }
 }
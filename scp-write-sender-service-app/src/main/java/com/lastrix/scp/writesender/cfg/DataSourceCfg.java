@@ -0,0 +1,62 @@
+package com.lastrix.scp.writesender.cfg;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+
+/**
+ * Each pipeline stage gets its own pool, so fetching, committing sent changes
+ * and confirming received ones never wait for each other's connections.
+ * Connection settings are shared and taken from spring.datasource, pool settings
+ * are configured per stage with scp.wss.datasource.[stage].hikari.
+ * Fetch stage is primary one and used by everything not bound to stage explicitly.
+ */
+@Configuration
+public class DataSourceCfg {
+    @Bean
+    @Primary
+    @ConfigurationProperties("scp.wss.datasource.fetch.hikari")
+    public HikariDataSource fetchDataSource(DataSourceProperties properties) {
+        return newDataSource(properties);
+    }
+
+    @Bean
+    @ConfigurationProperties("scp.wss.datasource.commit.hikari")
+    public HikariDataSource commitDataSource(DataSourceProperties properties) {
+        return newDataSource(properties);
+    }
+
+    @Bean
+    @ConfigurationProperties("scp.wss.datasource.confirm.hikari")
+    public HikariDataSource confirmDataSource(DataSourceProperties properties) {
+        return newDataSource(properties);
+    }
+
+    @Bean
+    @Primary
+    public PlatformTransactionManager transactionManager(DataSource ds) {
+        return new DataSourceTransactionManager(ds);
+    }
+
+    @Bean
+    public PlatformTransactionManager commitTransactionManager(@Qualifier("commitDataSource") DataSource ds) {
+        return new DataSourceTransactionManager(ds);
+    }
+
+    @Bean
+    public PlatformTransactionManager confirmTransactionManager(@Qualifier("confirmDataSource") DataSource ds) {
+        return new DataSourceTransactionManager(ds);
+    }
+
+    private HikariDataSource newDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
@@ -1,7 +1,9 @@
 package com.lastrix.scp.writesender.cfg;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
@@ -9,7 +11,18 @@ import javax.sql.DataSource;
 @Configuration
 public class JdbcTemplateCfg {
     @Bean
+    @Primary
     public JdbcTemplate jdbcTemplate(DataSource ds) {
         return new JdbcTemplate(ds);
     }
+
+    @Bean
+    public JdbcTemplate commitJdbcTemplate(@Qualifier("commitDataSource") DataSource ds) {
+        return new JdbcTemplate(ds);
+    }
+
+    @Bean
+    public JdbcTemplate confirmJdbcTemplate(@Qualifier("confirmDataSource") DataSource ds) {
+        return new JdbcTemplate(ds);
+    }
 }
@@ -1,17 +1,26 @@
 package com.lastrix.scp.writesender.cfg;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lastrix.scp.common.EnvelopeCompression;
+import com.lastrix.scp.sender.ChangeCodec;
+import com.lastrix.scp.sender.EnvelopeConfig;
+import com.lastrix.scp.sender.JsonChangeCodec;
 import com.lastrix.scp.sender.KafkaChangeSender;
+import com.lastrix.scp.sender.KafkaProducerPool;
+import com.lastrix.scp.writesender.codec.EnrolleeSelectBinaryCodec;
 import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,13 +32,39 @@ public class KafkaCfg {
     private String kafkaURL;
     @Value("${scp.kafka.topics.direct.template}")
     private String topicTemplate;
+    @Value("${scp.kafka.codec.direct}")
+    private CodecType codecType;
+    @Value("${scp.kafka.key}")
+    private RecordKey recordKey;
+    @Value("${scp.kafka.partitioner:}")
+    private String partitioner;
+    @Value("${scp.kafka.envelope.enabled}")
+    private boolean envelopeEnabled;
+    @Value("${scp.kafka.envelope.max-changes}")
+    private int envelopeMaxChanges;
+    @Value("${scp.kafka.envelope.max-bytes}")
+    private DataSize envelopeMaxBytes;
+    @Value("${scp.kafka.envelope.compression}")
+    private EnvelopeCompression envelopeCompression;
+
+    @Value("${scp.kafka.producers.count}")
+    private int producerCount;
+    @Value("${scp.kafka.producers.idle-timeout}")
+    private Duration producerIdleTimeout;
+    @Value("${scp.kafka.producers.buffer-memory}")
+    private DataSize producerBufferMemory;
+    @Value("${scp.kafka.producers.batch-size}")
+    private DataSize producerBatchSize;
+    @Value("${scp.kafka.producers.linger}")
+    private Duration producerLinger;
 
     @Bean
-    public KafkaTemplate<String, String> commonKafkaTemplate() {
-        return new KafkaTemplate<>(newProducerFactory());
+    public KafkaProducerPool kafkaProducerPool() {
+        // channels are pinned to producers by modulo of their number
+        return new KafkaProducerPool(this::newProducerFactory, producerCount, producerIdleTimeout);
     }
 
-    private ProducerFactory<String, String> newProducerFactory() {
+    private ProducerFactory<String, byte[]> newProducerFactory() {
         return new DefaultKafkaProducerFactory<>(createKafkaProducerProperties());
     }
 
@@ -37,17 +72,41 @@ public class KafkaCfg {
         var cfg = new HashMap<String, Object>();
         cfg.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaURL);
         cfg.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        cfg.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        cfg.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
         cfg.put(ProducerConfig.RETRY_BACKOFF_MS_CONFIG, 1000);
         cfg.put(ProducerConfig.RETRIES_CONFIG, 10);
-        cfg.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 16 * ONE_MB); // allow for 16 mb buffer
+        // every producer of pool has its own buffer and batches
+        cfg.put(ProducerConfig.BUFFER_MEMORY_CONFIG, producerBufferMemory.toBytes());
+        cfg.put(ProducerConfig.BATCH_SIZE_CONFIG, (int) producerBatchSize.toBytes());
+        cfg.put(ProducerConfig.LINGER_MS_CONFIG, producerLinger.toMillis());
         cfg.put(ProducerConfig.RECEIVE_BUFFER_CONFIG, 8 * ONE_MB); // 8 mb receive buffer
         cfg.put(ProducerConfig.SEND_BUFFER_CONFIG, 8 * ONE_MB); // 8 mb send buffer
+        if (!partitioner.isBlank()) {
+            // default partitioner hashes record key, custom one may be used for other schemes
+            cfg.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, partitioner);
+        }
         return cfg;
     }
 
     @Bean
-    public KafkaChangeSender<EnrolleeSelect> enrolleeSelectKafkaChangeSender(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper) {
-        return new KafkaChangeSender<>(kafkaTemplate, mapper, topicTemplate);
+    public KafkaChangeSender<EnrolleeSelect> enrolleeSelectKafkaChangeSender(KafkaProducerPool producers, ObjectMapper mapper) {
+        ChangeCodec<EnrolleeSelect> codec = switch (codecType) {
+            case JSON -> new JsonChangeCodec<>(mapper, EnrolleeSelect.class);
+            case BINARY -> new EnrolleeSelectBinaryCodec();
+        };
+        var envelope = envelopeEnabled
+                ? new EnvelopeConfig(envelopeMaxChanges, (int) envelopeMaxBytes.toBytes(), envelopeCompression)
+                : null;
+        return new KafkaChangeSender<>(producers, codec, topicTemplate, recordKey.getExtractor(), envelope, newPartitioner());
+    }
+
+    /**
+     * Partitioner producers use, sender needs it to place envelopes, null for default one
+     */
+    private Partitioner newPartitioner() {
+        if (partitioner.isBlank()) {
+            return null;
+        }
+        return new ProducerConfig(createKafkaProducerProperties()).getConfiguredInstance(ProducerConfig.PARTITIONER_CLASS_CONFIG, Partitioner.class);
     }
 }
@@ -0,0 +1,28 @@
+package com.lastrix.scp.writesender.cfg;
+
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+
+import java.util.function.Function;
+
+/**
+ * Which part of change is used as kafka record key, changes with
+ * same key are kept in order by consumers
+ */
+public enum RecordKey {
+    /**
+     * No key, producer spreads records over partitions freely
+     */
+    NONE(null),
+    USER(x -> x.getUserId().toString()),
+    USER_SESSION(x -> x.getUserId().toString() + ':' + x.getSessionId());
+
+    private final Function<EnrolleeSelect, String> extractor;
+
+    RecordKey(Function<EnrolleeSelect, String> extractor) {
+        this.extractor = extractor;
+    }
+
+    public Function<EnrolleeSelect, String> getExtractor() {
+        return extractor;
+    }
+}
@@ -0,0 +1,107 @@
+package com.lastrix.scp.writesender.cfg;
+
+import com.lastrix.scp.common.ExecutionMode;
+import com.lastrix.scp.sender.ChangeSenderConfig;
+import com.lastrix.scp.writesender.service.FetchMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+public class SenderCfg {
+    @Value("${scp.wss.worker.parallelism}")
+    private int parallelism;
+    @Value("${scp.wss.worker.channels.count}")
+    private int channels;
+    @Value("${scp.wss.worker.max-processing-chunk}")
+    private int maxProcessingChunk;
+    @Value("${scp.wss.worker.channels.weights}")
+    private String channelWeights;
+    @Value("${scp.wss.worker.poll-interval}")
+    private Duration pollInterval;
+    @Value("${scp.wss.worker.commit-chunk-size}")
+    private int commitChunkSize;
+    @Value("${scp.wss.worker.commit-linger}")
+    private Duration commitLinger;
+    @Value("${scp.wss.worker.prefetch}")
+    private boolean prefetch;
+    @Value("${scp.wss.worker.max-in-flight-batches}")
+    private int maxInFlightBatches;
+    @Value("${scp.wss.worker.dedup-capacity}")
+    private int dedupCapacity;
+    @Value("${scp.wss.worker.retry.initial-delay}")
+    private Duration retryInitialDelay;
+    @Value("${scp.wss.worker.retry.max-delay}")
+    private Duration retryMaxDelay;
+    @Value("${scp.wss.worker.retry.breaker-threshold}")
+    private int breakerThreshold;
+    @Value("${scp.wss.worker.channels.lease.enabled}")
+    private boolean leaseChannels;
+    @Value("${scp.wss.worker.priority.enabled}")
+    private boolean priority;
+    @Value("${scp.wss.worker.priority.max-skips}")
+    private int priorityMaxSkips;
+    @Value("${scp.wss.worker.coalesce}")
+    private boolean coalesce;
+    @Value("${scp.wss.worker.snapshot.path}")
+    private String snapshotPath;
+    @Value("${scp.wss.worker.snapshot.interval}")
+    private Duration snapshotInterval;
+    @Value("${scp.wss.worker.snapshot.max-age}")
+    private Duration snapshotMaxAge;
+    @Value("${scp.wss.execution-mode}")
+    private ExecutionMode executionMode;
+    @Value("${scp.wss.source.fetch-mode}")
+    private FetchMode fetchMode;
+
+    @Bean
+    public ChangeSenderConfig changeSenderConfig() {
+        var cfg = new ChangeSenderConfig();
+        cfg.setParallelism(parallelism);
+        cfg.setChannels(channels);
+        // leased channels are added by ChannelLeaseService
+        cfg.setDynamicChannels(leaseChannels);
+        cfg.setMaxProcessingChunk(maxProcessingChunk);
+        cfg.setChannelWeights(parseWeights(channelWeights));
+        cfg.setPollInterval(pollInterval);
+        // urgent and routine lanes, see DefaultChangeSenderService.priorityOf
+        cfg.setLanes(priority ? 2 : 1);
+        cfg.setMaxLaneSkips(priorityMaxSkips);
+        cfg.setCoalesce(coalesce);
+        cfg.setCommitChunkSize(commitChunkSize);
+        cfg.setCommitLinger(commitLinger);
+        cfg.setMaxInFlightBatches(maxInFlightBatches);
+        cfg.setDedupCapacity(dedupCapacity);
+        cfg.setExecutionMode(executionMode);
+        cfg.setRetryInitialDelay(retryInitialDelay);
+        cfg.setRetryMaxDelay(retryMaxDelay);
+        cfg.setBreakerThreshold(breakerThreshold);
+        cfg.setSnapshotPath(snapshotPath.isBlank() ? null : Path.of(snapshotPath));
+        cfg.setSnapshotInterval(snapshotInterval);
+        cfg.setSnapshotMaxAge(snapshotMaxAge);
+        // stream mode reads everything with single query, there are no pages to prefetch
+        cfg.setPrefetch(prefetch && fetchMode != FetchMode.STREAM);
+        return cfg;
+    }
+
+    /**
+     * Parse weights in form of channel:weight pairs separated by comma, e.g. 0:4,3:2
+     */
+    private static Map<Integer, Integer> parseWeights(String s) {
+        var r = new HashMap<Integer, Integer>();
+        for (var pair : s.split(",")) {
+            if (pair.isBlank()) continue;
+            var parts = pair.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Channel weight must be channel:weight pair: " + pair);
+            }
+            r.put(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return r;
+    }
+}
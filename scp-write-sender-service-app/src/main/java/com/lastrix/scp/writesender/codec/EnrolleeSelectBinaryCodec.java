@@ -0,0 +1,90 @@
+package com.lastrix.scp.writesender.codec;
+
+import com.lastrix.scp.sender.ChangeBuffer;
+import com.lastrix.scp.sender.ChangeCodec;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Compact fixed layout for {@link EnrolleeSelect}:
+ * version, null flags, two uuids as longs, varint numbers and
+ * instants as epoch nanoseconds
+ */
+public class EnrolleeSelectBinaryCodec implements ChangeCodec<EnrolleeSelect> {
+    static final byte VERSION = 1;
+    private static final int CREATED = 1;
+    private static final int CONFIRMED = 1 << 1;
+    private static final int CANCELLED = 1 << 2;
+
+    @Override
+    public void encode(EnrolleeSelect change, ChangeBuffer out) {
+        out.write(VERSION);
+        int flags = 0;
+        if (change.getCreatedStamp() != null) flags |= CREATED;
+        if (change.getConfirmedStamp() != null) flags |= CONFIRMED;
+        if (change.getCancelledStamp() != null) flags |= CANCELLED;
+        out.write(flags);
+        writeUUID(out, change.getUserId());
+        out.writeVarInt(change.getSessionId());
+        writeUUID(out, change.getSpecId());
+        out.writeVarInt(change.getStatus());
+        out.writeVarInt(change.getScore());
+        out.writeVarInt(change.getOrdinal());
+        writeInstant(out, change.getCreatedStamp());
+        writeInstant(out, change.getConfirmedStamp());
+        writeInstant(out, change.getCancelledStamp());
+    }
+
+    @Override
+    public EnrolleeSelect decode(byte[] data, int offset, int length) {
+        try {
+            var b = ByteBuffer.wrap(data, offset, length);
+            checkVersion(b.get());
+            int flags = b.get();
+            var r = new EnrolleeSelect();
+            r.setUserId(readUUID(b));
+            r.setSessionId(ChangeBuffer.readVarInt(b));
+            r.setSpecId(readUUID(b));
+            r.setStatus((short) ChangeBuffer.readVarInt(b));
+            r.setScore(ChangeBuffer.readVarInt(b));
+            r.setOrdinal((short) ChangeBuffer.readVarInt(b));
+            r.setCreatedStamp((flags & CREATED) != 0 ? readInstant(b) : null);
+            r.setConfirmedStamp((flags & CONFIRMED) != 0 ? readInstant(b) : null);
+            r.setCancelledStamp((flags & CANCELLED) != 0 ? readInstant(b) : null);
+            return r;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message", e);
+        }
+    }
+
+    static void checkVersion(byte version) {
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported codec version: " + version);
+        }
+    }
+
+    static void writeUUID(ChangeBuffer out, UUID v) {
+        out.writeLong(v.getMostSignificantBits());
+        out.writeLong(v.getLeastSignificantBits());
+    }
+
+    static UUID readUUID(ByteBuffer b) {
+        return new UUID(b.getLong(), b.getLong());
+    }
+
+    private static void writeInstant(ChangeBuffer out, Instant v) {
+        if (v != null) {
+            // fits into long till year 2262
+            out.writeLong(v.getEpochSecond() * 1_000_000_000L + v.getNano());
+        }
+    }
+
+    private static Instant readInstant(ByteBuffer b) {
+        long v = b.getLong();
+        return Instant.ofEpochSecond(Math.floorDiv(v, 1_000_000_000L), Math.floorMod(v, 1_000_000_000L));
+    }
+}
@@ -0,0 +1,45 @@
+package com.lastrix.scp.writesender.codec;
+
+import com.lastrix.scp.receiver.ChangeDecoder;
+import com.lastrix.scp.sender.ChangeBuffer;
+import com.lastrix.scp.sender.ChangeCodec;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static com.lastrix.scp.writesender.codec.EnrolleeSelectBinaryCodec.*;
+
+/**
+ * Compact fixed layout for {@link EnrolleeSelectId}, same conventions
+ * as {@link EnrolleeSelectBinaryCodec}
+ */
+public class EnrolleeSelectIdBinaryCodec implements ChangeCodec<EnrolleeSelectId>, ChangeDecoder<EnrolleeSelectId> {
+    @Override
+    public void encode(EnrolleeSelectId change, ChangeBuffer out) {
+        out.write(VERSION);
+        writeUUID(out, change.getUserId());
+        out.writeVarInt(change.getSessionId());
+        writeUUID(out, change.getSpecId());
+        out.writeVarInt(change.getOrdinal());
+    }
+
+    @Override
+    public EnrolleeSelectId decode(byte[] data, int offset, int length) {
+        try {
+            var b = ByteBuffer.wrap(data, offset, length);
+            checkVersion(b.get());
+            var userId = readUUID(b);
+            var sessionId = ChangeBuffer.readVarInt(b);
+            var specId = readUUID(b);
+            return new EnrolleeSelectId(userId, sessionId, specId, ChangeBuffer.readVarInt(b));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message", e);
+        }
+    }
+
+    @Override
+    public EnrolleeSelectId decode(byte[] data) {
+        return decode(data, 0, data.length);
+    }
+}
@@ -0,0 +1,29 @@
+package com.lastrix.scp.writesender.dao;
+
+import java.util.Set;
+
+/**
+ * Range of channels served by this instance, channel of row is calculated
+ * as lower 32 bits of spec_id masked with mask
+ *
+ * @param start first channel, inclusive
+ * @param end   last channel, exclusive
+ * @param mask  the channel mask
+ * @param owned channels of range leased by this instance, null if whole range is served
+ */
+public record ChannelFilter(int start, int end, int mask, Set<Integer> owned) {
+    public ChannelFilter(int start, int end, int mask) {
+        this(start, end, mask, null);
+    }
+
+    public ChannelFilter withOwned(Set<Integer> owned) {
+        return new ChannelFilter(start, end, mask, owned);
+    }
+
+    /**
+     * @return true if no channel may pass filter
+     */
+    public boolean isEmpty() {
+        return start >= end || owned != null && owned.isEmpty();
+    }
+}
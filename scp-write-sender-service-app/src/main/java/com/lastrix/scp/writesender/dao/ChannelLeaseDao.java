@@ -0,0 +1,63 @@
+package com.lastrix.scp.writesender.dao;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface ChannelLeaseDao {
+    /**
+     * Create lease rows for channels of range if missing
+     *
+     * @param start first channel, inclusive
+     * @param end   last channel, exclusive
+     */
+    void createChannels(int start, int end);
+
+    /**
+     * Mark instance alive for lease duration and forget instances
+     * which did not do that in time
+     *
+     * @param owner the identifier of instance
+     * @param lease how long instance is considered alive
+     * @return number of live instances including this one
+     */
+    int heartbeat(UUID owner, Duration lease);
+
+    /**
+     * Extend leases still held by instance
+     *
+     * @param owner the identifier of instance
+     * @param lease new lease duration from now
+     * @return channels owned by instance
+     */
+    List<Integer> renew(UUID owner, Duration lease);
+
+    /**
+     * Take channels of range which have no owner or whose lease expired,
+     * channels locked by concurrent acquire are skipped
+     *
+     * @param owner the identifier of instance
+     * @param lease lease duration from now
+     * @param start first channel, inclusive
+     * @param end   last channel, exclusive
+     * @param limit maximum number of channels to take
+     * @return channels taken
+     */
+    List<Integer> acquire(UUID owner, Duration lease, int start, int end, int limit);
+
+    /**
+     * Give away channels, so other instances may take them right away
+     *
+     * @param owner    the identifier of instance
+     * @param channels the channels to give away
+     */
+    void release(UUID owner, Collection<Integer> channels);
+
+    /**
+     * Give away all channels of instance and forget it
+     *
+     * @param owner the identifier of instance
+     */
+    void leave(UUID owner);
+}
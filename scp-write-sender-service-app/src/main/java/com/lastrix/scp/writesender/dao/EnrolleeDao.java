@@ -1,14 +1,83 @@
 package com.lastrix.scp.writesender.dao;
 
+import com.lastrix.scp.sender.ChangePage;
 import com.lastrix.scp.writesender.model.EnrolleeSelect;
 import com.lastrix.scp.writesender.model.EnrolleeSelectId;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 public interface EnrolleeDao {
+    /**
+     * Mark changes as sent, rows no longer pending (e.g. confirmed after
+     * snapshot of sent changes was written) are left as they are
+     *
+     * @param changes the changes to mark as sent
+     * @return the number of rows actually updated
+     */
     int commit(List<EnrolleeSelect> changes);
 
     List<EnrolleeSelect> fetch(int page);
 
+    /**
+     * Fetch page of changes ordered by (modified_stamp, user_id, session_id, spec_id, ordinal)
+     * located right after cursor
+     *
+     * @param cursor the key of last row from previous page or null to start from beginning
+     * @param filter the channels served by this instance
+     * @return the page with cursor pointing to its last row
+     */
+    ChangePage<EnrolleeSelect> fetchAfter(EnrolleeSelectCursor cursor, ChannelFilter filter);
+
+    /**
+     * Read all changes in (modified_stamp, user_id, session_id, spec_id, ordinal) order
+     * and hand them to consumer as they arrive from database
+     *
+     * @param filter    the channels served by this instance
+     * @param fetchSize how many rows driver reads from server at once
+     * @param consumer  the consumer of changes, returns false to stop reading
+     * @return number of rows read
+     */
+    int stream(ChannelFilter filter, int fetchSize, Predicate<EnrolleeSelect> consumer);
+
+    /**
+     * Claim page of unclaimed changes for this instance. Claimed rows are invisible
+     * to other instances till lease expires or row is committed.
+     *
+     * @param token       the identifier of this instance
+     * @param lease       how long claim lasts
+     * @param filter      the channels served by this instance
+     * @param urgentFirst claim cancelled and confirmed changes before others
+     * @return claimed changes
+     */
+    List<EnrolleeSelect> claim(UUID token, Duration lease, ChannelFilter filter, boolean urgentFirst);
+
+    /**
+     * Fetch page of oldest cancelled or confirmed changes, such changes are sent
+     * before routine ones, they are returned again by other fetch methods
+     *
+     * @param filter the channels served by this instance
+     * @return the changes ordered by modified_stamp
+     */
+    List<EnrolleeSelect> fetchUrgent(ChannelFilter filter);
+
     int confirm(List<EnrolleeSelectId> list);
+
+    /**
+     * Same as {@link #commit(List)}, but updates all rows with single statement
+     *
+     * @param changes the changes to mark as sent
+     * @return identifiers of rows actually updated
+     */
+    List<EnrolleeSelectId> bulkCommit(List<EnrolleeSelect> changes);
+
+    /**
+     * Same as {@link #confirm(List)}, but updates all rows with single statement
+     *
+     * @param list the identifiers of rows to mark as confirmed
+     * @return identifiers of rows actually updated
+     */
+    List<EnrolleeSelectId> bulkConfirm(List<EnrolleeSelectId> list);
 }
@@ -0,0 +1,11 @@
+package com.lastrix.scp.writesender.dao;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Position of seek fetch, holds key of last fetched row in
+ * (modified_stamp, user_id, session_id, spec_id, ordinal) order
+ */
+public record EnrolleeSelectCursor(Instant modifiedStamp, UUID userId, int sessionId, UUID specId, short ordinal) {
+}
@@ -0,0 +1,187 @@
+package com.lastrix.scp.writesender.dao;
+
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decoder for pgoutput logical replication messages (protocol version 1).
+ * Only scp_write_service.enrollee_select rows are decoded, everything else
+ * except transaction commits is skipped.
+ */
+public class PgOutputDecoder {
+    private static final String SCHEMA = "scp_write_service";
+    private static final String TABLE = "enrollee_select";
+    /**
+     * Columns we are interested in, position in this array is used as value index
+     */
+    private static final String[] COLUMNS = {
+            "user_id", "session_id", "spec_id", "status", "score",
+            "created_stamp", "confirmed_stamp", "canceled_stamp", "ordinal", "state", "modified_stamp"
+    };
+    private static final int STATE = 9;
+    private static final int MODIFIED_STAMP = 10;
+    /**
+     * pgoutput sends values in text format, timestamps may come with or without offset
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .optionalStart().appendOffset("+HH:mm", "Z").optionalEnd()
+            .toFormatter();
+
+    /**
+     * Maps relation oid to array of value indexes by tuple column position,
+     * only enrollee_select relation is registered here
+     */
+    private final Map<Integer, int[]> relations = new HashMap<>();
+
+    public void decode(ByteBuffer b, Handler handler) {
+        switch (b.get()) {
+            case 'R' -> decodeRelation(b);
+            case 'I' -> decodeInsert(b, handler);
+            case 'U' -> decodeUpdate(b, handler);
+            case 'C' -> decodeCommit(b, handler);
+            default -> {
+                // begin, delete, truncate, type and origin messages are not interesting
+            }
+        }
+    }
+
+    private void decodeRelation(ByteBuffer b) {
+        int oid = b.getInt();
+        String namespace = readString(b);
+        String name = readString(b);
+        b.get(); // replica identity
+        int count = b.getShort();
+        int[] columns = new int[count];
+        for (int i = 0; i < count; i++) {
+            b.get(); // flags
+            columns[i] = indexOf(readString(b));
+            b.getInt(); // type oid
+            b.getInt(); // type modifier
+        }
+        if (SCHEMA.equals(namespace) && TABLE.equals(name)) {
+            relations.put(oid, columns);
+        } else {
+            // relation may be renamed or moved
+            relations.remove(oid);
+        }
+    }
+
+    private void decodeInsert(ByteBuffer b, Handler handler) {
+        int[] columns = relations.get(b.getInt());
+        if (columns == null) return;
+        b.get(); // 'N'
+        decodeTuple(b, columns, handler);
+    }
+
+    private void decodeUpdate(ByteBuffer b, Handler handler) {
+        int[] columns = relations.get(b.getInt());
+        if (columns == null) return;
+        byte kind = b.get();
+        if (kind == 'K' || kind == 'O') {
+            // old key or tuple is present, skip it, we need only new one
+            readTuple(b, columns);
+            b.get(); // 'N'
+        }
+        decodeTuple(b, columns, handler);
+    }
+
+    private void decodeCommit(ByteBuffer b, Handler handler) {
+        b.get(); // flags
+        b.getLong(); // commit lsn
+        long endLsn = b.getLong();
+        handler.onCommit(endLsn);
+    }
+
+    private void decodeTuple(ByteBuffer b, int[] columns, Handler handler) {
+        String[] v = readTuple(b, columns);
+        if (v[STATE] == null) {
+            throw new IllegalStateException("No state column in replicated tuple");
+        }
+        var r = new EnrolleeSelect();
+        r.setUserId(UUID.fromString(v[0]));
+        r.setSessionId(Integer.parseInt(v[1]));
+        r.setSpecId(UUID.fromString(v[2]));
+        r.setStatus(Short.parseShort(v[3]));
+        r.setScore(Integer.parseInt(v[4]));
+        r.setCreatedStamp(toInstantOrNull(v[5]));
+        r.setConfirmedStamp(toInstantOrNull(v[6]));
+        r.setCancelledStamp(toInstantOrNull(v[7]));
+        r.setOrdinal(Short.parseShort(v[8]));
+        r.setModifiedStamp(toInstantOrNull(v[MODIFIED_STAMP]));
+        handler.onRow(r, Short.parseShort(v[STATE]));
+    }
+
+    private String[] readTuple(ByteBuffer b, int[] columns) {
+        String[] values = new String[COLUMNS.length];
+        int count = b.getShort();
+        for (int i = 0; i < count; i++) {
+            byte kind = b.get();
+            // 'n' is null and 'u' is unchanged toast value, none of them carry data
+            if (kind != 't') continue;
+            int length = b.getInt();
+            int index = i < columns.length ? columns[i] : -1;
+            if (index < 0) {
+                b.position(b.position() + length);
+            } else {
+                values[index] = new String(b.array(), b.arrayOffset() + b.position(), length, StandardCharsets.UTF_8);
+                b.position(b.position() + length);
+            }
+        }
+        return values;
+    }
+
+    private static int indexOf(String column) {
+        return Arrays.asList(COLUMNS).indexOf(column);
+    }
+
+    private static String readString(ByteBuffer b) {
+        int start = b.position();
+        while (b.get() != 0) {
+            // looking for string terminator
+        }
+        return new String(b.array(), b.arrayOffset() + start, b.position() - start - 1, StandardCharsets.UTF_8);
+    }
+
+    private static Instant toInstantOrNull(String value) {
+        if (value == null) return null;
+        TemporalAccessor t = TIMESTAMP_FORMAT.parseBest(value, OffsetDateTime::from, LocalDateTime::from);
+        if (t instanceof OffsetDateTime odt) {
+            return odt.toInstant();
+        }
+        // same as jdbc driver does for timestamp without time zone
+        return ((LocalDateTime) t).atZone(ZoneId.systemDefault()).toInstant();
+    }
+
+    public interface Handler {
+        /**
+         * Called for each inserted or updated enrollee_select row
+         *
+         * @param row   the decoded row
+         * @param state the state column value
+         */
+        void onRow(EnrolleeSelect row, short state);
+
+        /**
+         * Called when transaction commit message received
+         *
+         * @param endLsn the position right after transaction commit record
+         */
+        void onCommit(long endLsn);
+    }
+}
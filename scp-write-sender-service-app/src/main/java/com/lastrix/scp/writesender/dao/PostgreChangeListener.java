@@ -0,0 +1,104 @@
+package com.lastrix.scp.writesender.dao;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Listens for PostgreSQL notifications sent by enrollee_select trigger
+ * and wakes up subscribers. Uses dedicated connection outside of pool, because
+ * LISTEN is bound to session and pool may be too small to give one connection away.
+ */
+@Component
+@ConditionalOnProperty(value = "scp.wss.source.notify.enabled", havingValue = "true")
+public class PostgreChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(PostgreChangeListener.class);
+    private static final Pattern CHANNEL_PATTERN = Pattern.compile("[a-z_][a-z0-9_]*");
+    /**
+     * How long we wait for notifications in single call, also defines how fast we stop
+     */
+    private static final int NOTIFICATION_TIMEOUT_MS = (int) Duration.ofSeconds(1).toMillis();
+
+    private final DataSourceProperties properties;
+    private final String channel;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final Thread listenThread;
+    private volatile boolean running = true;
+
+    public PostgreChangeListener(
+            DataSourceProperties properties,
+            @Value("${scp.wss.source.notify.channel}") String channel) {
+        if (!CHANNEL_PATTERN.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Illegal notification channel name: " + channel);
+        }
+        this.properties = properties;
+        this.channel = channel;
+        listenThread = new Thread(this::doListen, "change-notify-thread");
+        listenThread.setDaemon(true);
+        listenThread.start();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        running = false;
+    }
+
+    public void subscribe(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    private void doListen() {
+        while (running) {
+            try (var c = DriverManager.getConnection(properties.determineUrl(), properties.determineUsername(), properties.determinePassword())) {
+                listen(c);
+            } catch (Throwable e) {
+                log.error("Failed to listen for notifications", e);
+                waitOnError();
+            }
+        }
+    }
+
+    private void listen(Connection c) throws SQLException {
+        try (var st = c.createStatement()) {
+            st.execute("LISTEN " + channel);
+        }
+        var pg = c.unwrap(PGConnection.class);
+        // changes may be made while we were not listening
+        notifyListeners();
+        while (running) {
+            var notifications = pg.getNotifications(NOTIFICATION_TIMEOUT_MS);
+            // we do not care about count of notifications, single wake up
+            // is enough for fetcher to read everything
+            if (notifications != null && notifications.length > 0) {
+                notifyListeners();
+            }
+        }
+    }
+
+    private void notifyListeners() {
+        for (Runnable l : listeners) {
+            l.run();
+        }
+    }
+
+    private void waitOnError() {
+        try {
+            Thread.sleep(Duration.ofSeconds(15).toMillis());
+        } catch (InterruptedException ignored) {
+            // do nothing
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.lastrix.scp.writesender.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@Repository
+@ConditionalOnProperty(value = "scp.wss.worker.channels.lease.enabled", havingValue = "true")
+public class PostgreChannelLeaseDao implements ChannelLeaseDao {
+    private final JdbcTemplate jdbcTemplate;
+
+    // statements are short, so commit pool is used, fetch pool
+    // may be busy with long page or stream queries
+    @Autowired
+    public PostgreChannelLeaseDao(@Qualifier("commitJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void createChannels(int start, int end) {
+        jdbcTemplate.update("""
+                        INSERT INTO scp_write_service.sender_channel_lease (channel)
+                        SELECT generate_series(?, ? - 1)
+                        ON CONFLICT DO NOTHING""",
+                start,
+                end
+        );
+    }
+
+    @Override
+    public int heartbeat(UUID owner, Duration lease) {
+        jdbcTemplate.update("""
+                        INSERT INTO scp_write_service.sender_instance (id, alive_until)
+                        VALUES (?, CURRENT_TIMESTAMP + make_interval(secs => ?))
+                        ON CONFLICT (id) DO UPDATE SET alive_until = excluded.alive_until""",
+                owner,
+                seconds(lease)
+        );
+        jdbcTemplate.update("DELETE FROM scp_write_service.sender_instance WHERE alive_until < CURRENT_TIMESTAMP");
+        var r = jdbcTemplate.queryForObject("SELECT count(*) FROM scp_write_service.sender_instance", Integer.class);
+        return r == null ? 1 : r;
+    }
+
+    @Override
+    public List<Integer> renew(UUID owner, Duration lease) {
+        // lease which expired, but was not taken by others yet, is still ours
+        return jdbcTemplate.queryForList("""
+                        UPDATE scp_write_service.sender_channel_lease
+                        SET lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?)
+                        WHERE owner = ?
+                        RETURNING channel""",
+                Integer.class,
+                seconds(lease),
+                owner
+        );
+    }
+
+    @Override
+    public List<Integer> acquire(UUID owner, Duration lease, int start, int end, int limit) {
+        return jdbcTemplate.queryForList("""
+                        UPDATE scp_write_service.sender_channel_lease t
+                        SET owner = ?,
+                            lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?)
+                        FROM (SELECT channel
+                              FROM scp_write_service.sender_channel_lease l
+                              WHERE l.channel >= ? AND l.channel < ?
+                                AND (l.owner IS NULL OR l.lease_until < CURRENT_TIMESTAMP)
+                              ORDER BY l.channel
+                              LIMIT ?
+                              FOR UPDATE SKIP LOCKED) c
+                        WHERE t.channel = c.channel
+                        RETURNING t.channel""",
+                Integer.class,
+                owner,
+                seconds(lease),
+                start,
+                end,
+                limit
+        );
+    }
+
+    @Override
+    public void release(UUID owner, Collection<Integer> channels) {
+        if (channels.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update("""
+                        UPDATE scp_write_service.sender_channel_lease
+                        SET owner = NULL, lease_until = NULL
+                        WHERE owner = ? AND channel = ANY(string_to_array(?, ',')::int[])""",
+                owner,
+                channels.stream().map(String::valueOf).collect(Collectors.joining(","))
+        );
+    }
+
+    @Override
+    public void leave(UUID owner) {
+        jdbcTemplate.update("""
+                        UPDATE scp_write_service.sender_channel_lease
+                        SET owner = NULL, lease_until = NULL
+                        WHERE owner = ?""",
+                owner
+        );
+        jdbcTemplate.update("DELETE FROM scp_write_service.sender_instance WHERE id = ?", owner);
+    }
+
+    private static double seconds(Duration d) {
+        return d.toMillis() / 1000.0;
+    }
+}
@@ -1,33 +1,90 @@
 package com.lastrix.scp.writesender.dao;
 
+import com.lastrix.scp.sender.ChangePage;
 import com.lastrix.scp.writesender.model.EnrolleeSelect;
 import com.lastrix.scp.writesender.model.EnrolleeSelectId;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Repository;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Repository
 public class PostgreEnrolleeDao implements EnrolleeDao {
+    private static final int PAGE_SIZE = 128;
+    private static final String SELECT_COLUMNS = """
+            SELECT  user_id,
+                    session_id,
+                    spec_id,
+                    status,
+                    score,
+                    created_stamp,
+                    confirmed_stamp,
+                    canceled_stamp,
+                    ordinal,
+                    modified_stamp
+            FROM scp_write_service.enrollee_select es
+            """;
+    private static final String KEY_ORDER = "ORDER BY es.modified_stamp, es.user_id, es.session_id, es.spec_id, es.ordinal";
+    private static final String SEEK_ORDER = KEY_ORDER + "\nLIMIT " + PAGE_SIZE;
+    /**
+     * Same channel calculation as in sender service: lower 32 bits of spec_id masked
+     */
+    private static final String CHANNEL_EXPRESSION = "(('x' || right(es.spec_id::text, 8))::bit(32)::int & ?)";
+    private static final String CHANNEL_CONDITION = CHANNEL_EXPRESSION + " >= ? AND " + CHANNEL_EXPRESSION + " < ?";
+    /**
+     * Leased channels are passed as comma separated list, so statement has same parameters for any count
+     */
+    private static final String OWNED_CONDITION = " AND " + CHANNEL_EXPRESSION + " = ANY(string_to_array(?, ',')::int[])";
+    /**
+     * Changes sent before routine ones, see DefaultChangeSenderService.priorityOf,
+     * db/enrollee_select_priority.sql has matching index. Row with earlier ordinal of
+     * selection still pending is not urgent, otherwise it would overtake that ordinal
+     */
+    private static final String URGENT_CONDITION = """
+            (es.canceled_stamp IS NOT NULL OR es.confirmed_stamp IS NOT NULL)
+            AND NOT EXISTS(SELECT 1
+                           FROM scp_write_service.enrollee_select p
+                           WHERE p.user_id = es.user_id
+                             AND p.session_id = es.session_id
+                             AND p.spec_id = es.spec_id
+                             AND p.ordinal < es.ordinal
+                             AND p.state = 0)""";
     private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate commitJdbcTemplate;
+    private final JdbcTemplate confirmJdbcTemplate;
 
     @Autowired
-    public PostgreEnrolleeDao(JdbcTemplate jdbcTemplate) {
+    public PostgreEnrolleeDao(
+            JdbcTemplate jdbcTemplate,
+            @Qualifier("commitJdbcTemplate") JdbcTemplate commitJdbcTemplate,
+            @Qualifier("confirmJdbcTemplate") JdbcTemplate confirmJdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        this.commitJdbcTemplate = commitJdbcTemplate;
+        this.confirmJdbcTemplate = confirmJdbcTemplate;
     }
 
     @Override
     public int commit(List<EnrolleeSelect> changes) {
-        int[] a = jdbcTemplate.batchUpdate(
-                "UPDATE scp_write_service.enrollee_select SET state = 1, modified_stamp = CURRENT_TIMESTAMP WHERE user_id = ? AND session_id = ? AND spec_id = ? AND ordinal = ?",
+        int[] a = commitJdbcTemplate.batchUpdate(
+                // changes restored from snapshot may be confirmed already, they must stay confirmed
+                "UPDATE scp_write_service.enrollee_select SET state = 1, modified_stamp = CURRENT_TIMESTAMP WHERE user_id = ? AND session_id = ? AND spec_id = ? AND ordinal = ? AND state = 0",
                 changes.stream().map(x -> new Object[]{x.getUserId(), x.getSessionId(), x.getSpecId(), x.getOrdinal()}).toList()
         );
         return sumArray(a);
@@ -35,13 +92,80 @@ public class PostgreEnrolleeDao implements EnrolleeDao {
 
     @Override
     public int confirm(List<EnrolleeSelectId> list) {
-        int[] a = jdbcTemplate.batchUpdate(
+        int[] a = confirmJdbcTemplate.batchUpdate(
                 "UPDATE scp_write_service.enrollee_select SET state = 2, modified_stamp = CURRENT_TIMESTAMP WHERE user_id = ? AND session_id = ? AND spec_id = ? AND ordinal = ?",
                 list.stream().map(x -> new Object[]{x.getUserId(), x.getSessionId(), x.getSpecId(), x.getOrdinal()}).toList()
         );
         return sumArray(a);
     }
 
+    @Override
+    public List<EnrolleeSelectId> bulkCommit(List<EnrolleeSelect> changes) {
+        int size = changes.size();
+        UUID[] userIds = new UUID[size];
+        Integer[] sessionIds = new Integer[size];
+        UUID[] specIds = new UUID[size];
+        Short[] ordinals = new Short[size];
+        for (int i = 0; i < size; i++) {
+            var c = changes.get(i);
+            userIds[i] = c.getUserId();
+            sessionIds[i] = c.getSessionId();
+            specIds[i] = c.getSpecId();
+            ordinals[i] = c.getOrdinal();
+        }
+        return bulkUpdateState(commitJdbcTemplate, 1, true, userIds, sessionIds, specIds, ordinals);
+    }
+
+    @Override
+    public List<EnrolleeSelectId> bulkConfirm(List<EnrolleeSelectId> list) {
+        int size = list.size();
+        UUID[] userIds = new UUID[size];
+        Integer[] sessionIds = new Integer[size];
+        UUID[] specIds = new UUID[size];
+        Short[] ordinals = new Short[size];
+        for (int i = 0; i < size; i++) {
+            var c = list.get(i);
+            userIds[i] = c.getUserId();
+            sessionIds[i] = c.getSessionId();
+            specIds[i] = c.getSpecId();
+            ordinals[i] = (short) c.getOrdinal();
+        }
+        return bulkUpdateState(confirmJdbcTemplate, 2, false, userIds, sessionIds, specIds, ordinals);
+    }
+
+    /**
+     * @param pendingOnly update only rows in state 0
+     */
+    private List<EnrolleeSelectId> bulkUpdateState(JdbcTemplate template, int state, boolean pendingOnly, UUID[] userIds, Integer[] sessionIds, UUID[] specIds, Short[] ordinals) {
+        // all keys are sent as four arrays, so statement is parsed and executed once
+        // regardless of number of rows
+        return template.query(
+                con -> {
+                    var ps = con.prepareStatement("""
+                            UPDATE scp_write_service.enrollee_select es
+                            SET state = ?, modified_stamp = CURRENT_TIMESTAMP
+                            FROM unnest(?::uuid[], ?::int[], ?::uuid[], ?::smallint[]) AS k(user_id, session_id, spec_id, ordinal)
+                            WHERE es.user_id = k.user_id
+                              AND es.session_id = k.session_id
+                              AND es.spec_id = k.spec_id
+                              AND es.ordinal = k.ordinal%s
+                            RETURNING es.user_id, es.session_id, es.spec_id, es.ordinal""".formatted(
+                            pendingOnly ? " AND es.state = 0" : ""));
+                    ps.setInt(1, state);
+                    ps.setArray(2, con.createArrayOf("uuid", userIds));
+                    ps.setArray(3, con.createArrayOf("int4", sessionIds));
+                    ps.setArray(4, con.createArrayOf("uuid", specIds));
+                    ps.setArray(5, con.createArrayOf("int2", ordinals));
+                    return ps;
+                },
+                (rs, rowNum) -> new EnrolleeSelectId(
+                        rs.getObject(1, UUID.class),
+                        rs.getInt(2),
+                        rs.getObject(3, UUID.class),
+                        rs.getShort(4))
+        );
+    }
+
     @Override
     public List<EnrolleeSelect> fetch(int page) {
         return jdbcTemplate.query(
@@ -54,34 +178,188 @@ public class PostgreEnrolleeDao implements EnrolleeDao {
                                 created_stamp,
                                 confirmed_stamp,
                                 canceled_stamp,
-                                ordinal
+                                ordinal,
+                                modified_stamp
                         FROM scp_write_service.enrollee_select es
                         WHERE es.state = 0
                         ORDER BY es.modified_stamp
                         LIMIT 128
                         OFFSET ?""",
                 (rs, rowNum) -> mapToEnrolleeSelect(rs),
-                page * 128
+                page * PAGE_SIZE
+        );
+    }
+
+    @Override
+    public ChangePage<EnrolleeSelect> fetchAfter(EnrolleeSelectCursor cursor, ChannelFilter filter) {
+        if (cursor == null) {
+            return jdbcTemplate.query(
+                    SELECT_COLUMNS + "WHERE es.state = 0 AND " + channelCondition(filter) + "\n" + SEEK_ORDER,
+                    (ResultSetExtractor<ChangePage<EnrolleeSelect>>) rs -> mapToPage(rs, null),
+                    channelArgs(filter)
+            );
+        }
+        // row value comparison lets database seek directly to the position
+        // after last row instead of scanning and skipping previous pages
+        return jdbcTemplate.query(
+                SELECT_COLUMNS + "WHERE es.state = 0 AND " + channelCondition(filter) + "\n"
+                        + "AND (es.modified_stamp, es.user_id, es.session_id, es.spec_id, es.ordinal) > (?, ?, ?, ?, ?)\n"
+                        + SEEK_ORDER,
+                (ResultSetExtractor<ChangePage<EnrolleeSelect>>) rs -> mapToPage(rs, cursor),
+                // bound as timestamptz, same type it is read as, Timestamp would be
+                // shifted by time zone of session or JVM and skip or repeat rows
+                channelArgs(filter,
+                        cursor.modifiedStamp().atOffset(ZoneOffset.UTC),
+                        cursor.userId(),
+                        cursor.sessionId(),
+                        cursor.specId(),
+                        cursor.ordinal())
+        );
+    }
+
+    @Override
+    public List<EnrolleeSelect> fetchUrgent(ChannelFilter filter) {
+        return jdbcTemplate.query(
+                SELECT_COLUMNS + "WHERE es.state = 0 AND (" + URGENT_CONDITION + ") AND " + channelCondition(filter) + "\n"
+                        + "ORDER BY es.modified_stamp\nLIMIT " + PAGE_SIZE,
+                (rs, rowNum) -> {
+                    var r = mapToEnrolleeSelect(rs);
+                    r.setUrgent(true);
+                    return r;
+                },
+                channelArgs(filter)
+        );
+    }
+
+    @Override
+    public int stream(ChannelFilter filter, int fetchSize, Predicate<EnrolleeSelect> consumer) {
+        // with fetch size set and inside transaction driver reads rows through
+        // server side cursor, so we never hold more than fetchSize rows in memory
+        // and closing result set early stops the query
+        return jdbcTemplate.query(
+                con -> {
+                    var ps = con.prepareStatement(SELECT_COLUMNS + "WHERE es.state = 0 AND " + channelCondition(filter) + "\n" + KEY_ORDER);
+                    ps.setFetchSize(fetchSize);
+                    var args = channelArgs(filter);
+                    for (int i = 0; i < args.length; i++) {
+                        ps.setObject(i + 1, args[i]);
+                    }
+                    return ps;
+                },
+                (ResultSetExtractor<Integer>) rs -> {
+                    int count = 0;
+                    while (rs.next()) {
+                        count++;
+                        if (!consumer.test(mapToEnrolleeSelect(rs))) {
+                            break;
+                        }
+                    }
+                    return count;
+                }
         );
     }
 
+    @Override
+    public List<EnrolleeSelect> claim(UUID token, Duration lease, ChannelFilter filter, boolean urgentFirst) {
+        // rows locked by concurrent claims are skipped, so instances never wait for each other,
+        // rows claimed by us are skipped too, otherwise we'll get them again on next page
+        // pieces are formatted into single block, concatenated after block they would
+        // lose separating space, javac strips trailing spaces of block lines
+        return jdbcTemplate.query(
+                """
+                        UPDATE scp_write_service.enrollee_select t
+                        SET claimed_by = ?,
+                            claimed_until = CURRENT_TIMESTAMP + make_interval(secs => ?)
+                        FROM (SELECT user_id, session_id, spec_id, ordinal,
+                                     %s AS urgent
+                              FROM scp_write_service.enrollee_select es
+                              WHERE es.state = 0
+                                AND (es.claimed_until IS NULL OR es.claimed_until < CURRENT_TIMESTAMP)
+                                AND %s
+                              ORDER BY %ses.modified_stamp
+                              LIMIT %d
+                              FOR UPDATE SKIP LOCKED) c
+                        WHERE t.user_id = c.user_id
+                          AND t.session_id = c.session_id
+                          AND t.spec_id = c.spec_id
+                          AND t.ordinal = c.ordinal
+                        RETURNING t.user_id,
+                                  t.session_id,
+                                  t.spec_id,
+                                  t.status,
+                                  t.score,
+                                  t.created_stamp,
+                                  t.confirmed_stamp,
+                                  t.canceled_stamp,
+                                  t.ordinal,
+                                  t.modified_stamp,
+                                  c.urgent""".formatted(
+                        urgentFirst ? "(" + URGENT_CONDITION + ")" : "false",
+                        channelCondition(filter),
+                        urgentFirst ? "urgent DESC, " : "",
+                        PAGE_SIZE),
+                (rs, rowNum) -> {
+                    var r = mapToEnrolleeSelect(rs);
+                    r.setUrgent(rs.getBoolean(11));
+                    return r;
+                },
+                Stream.concat(Stream.of(token, lease.toMillis() / 1000.0), Arrays.stream(channelArgs(filter))).toArray()
+        );
+    }
+
+    private static String channelCondition(ChannelFilter filter) {
+        return filter.owned() == null ? CHANNEL_CONDITION : CHANNEL_CONDITION + OWNED_CONDITION;
+    }
+
+    /**
+     * Arguments of channel condition, followed by rest in given order
+     */
+    private static Object[] channelArgs(ChannelFilter filter, Object... rest) {
+        List<Object> r = new ArrayList<>(List.of(filter.mask(), filter.start(), filter.mask(), filter.end()));
+        if (filter.owned() != null) {
+            r.add(filter.mask());
+            r.add(filter.owned().stream().map(String::valueOf).collect(Collectors.joining(",")));
+        }
+        r.addAll(Arrays.asList(rest));
+        return r.toArray();
+    }
+
+    private ChangePage<EnrolleeSelect> mapToPage(ResultSet rs, EnrolleeSelectCursor cursor) throws SQLException {
+        List<EnrolleeSelect> list = new ArrayList<>(PAGE_SIZE);
+        EnrolleeSelect last = null;
+        Instant lastStamp = null;
+        while (rs.next()) {
+            last = mapToEnrolleeSelect(rs);
+            lastStamp = toInstantOrNull(rs, 10);
+            list.add(last);
+        }
+        if (last == null) {
+            // nothing found, next call should start from the same place
+            return new ChangePage<>(list, cursor);
+        }
+        return new ChangePage<>(list, new EnrolleeSelectCursor(lastStamp, last.getUserId(), last.getSessionId(), last.getSpecId(), last.getOrdinal()));
+    }
+
     private EnrolleeSelect mapToEnrolleeSelect(ResultSet rs) throws SQLException {
         var r = new EnrolleeSelect();
-        r.setUserId(UUID.fromString(rs.getString(1)));
+        // driver decodes uuid from wire format directly, no string round trip
+        r.setUserId(rs.getObject(1, UUID.class));
         r.setSessionId(rs.getInt(2));
-        r.setSpecId(UUID.fromString(rs.getString(3)));
+        r.setSpecId(rs.getObject(3, UUID.class));
         r.setStatus(rs.getShort(4));
         r.setScore(rs.getInt(5));
         r.setCreatedStamp(toInstantOrNull(rs, 6));
         r.setConfirmedStamp(toInstantOrNull(rs, 7));
         r.setCancelledStamp(toInstantOrNull(rs, 8));
         r.setOrdinal(rs.getShort(9));
+        // every query selects modified_stamp right after key and data columns
+        r.setModifiedStamp(toInstantOrNull(rs, 10));
         return r;
     }
 
     private Instant toInstantOrNull(ResultSet rs, int columnIndex) throws SQLException {
-        Timestamp ts = rs.getTimestamp(columnIndex);
-        return ts == null ? null : ts.toInstant();
+        OffsetDateTime v = rs.getObject(columnIndex, OffsetDateTime.class);
+        return v == null ? null : v.toInstant();
     }
 
     private int sumArray(int[] a) {
@@ -0,0 +1,162 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangeSenderService;
+import com.lastrix.scp.writesender.dao.ChannelLeaseDao;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leases channels from database table and rebalances them between live instances,
+ * every instance takes ceil(channels / instances) of them. Instance with more
+ * channels than its share gives excess away, others take free or expired ones.
+ * <p>
+ * Changes are delivered at least once: batches in flight of removed channel
+ * are still committed, while its new owner may send same changes again.
+ */
+@Service
+@ConditionalOnProperty(value = "scp.wss.worker.channels.lease.enabled", havingValue = "true")
+public class ChannelLeaseService {
+    private static final Logger log = LoggerFactory.getLogger(ChannelLeaseService.class);
+
+    private final ChannelLeaseDao dao;
+    private final ChangeSenderService<EnrolleeSelect> sender;
+    private final ChannelOwnership ownership;
+    private final int channelStart;
+    private final int channelEnd;
+    private final Duration lease;
+    private final long renewInterval;
+    /**
+     * Identifies this instance in lease table
+     */
+    private final UUID owner = UUID.randomUUID();
+    private final Thread leaseThread;
+    private volatile boolean running = true;
+    /**
+     * Channels served right now, lease thread only
+     */
+    private Set<Integer> owned = new TreeSet<>();
+    /**
+     * Start of the last successful rebalance, lease thread only
+     */
+    private long renewedAt = System.nanoTime();
+
+    public ChannelLeaseService(
+            ChannelLeaseDao dao,
+            ChangeSenderService<EnrolleeSelect> sender,
+            ChannelOwnership ownership,
+            @Value("${scp.wss.worker.channels.start}") int channelStart,
+            @Value("${scp.wss.worker.channels.end}") int channelEnd,
+            @Value("${scp.wss.worker.channels.lease.duration}") Duration lease,
+            @Value("${scp.wss.worker.channels.lease.renew-interval}") Duration renewInterval,
+            @Value("${scp.wss.source.type}") String sourceType) {
+        if ("replication".equals(sourceType)) {
+            // replication slot streams changes of all channels to single consumer
+            throw new IllegalStateException("Channel leases are not supported with replication source");
+        }
+        if (renewInterval.compareTo(lease) >= 0) {
+            throw new IllegalArgumentException("Lease renew interval must be shorter than lease: " + renewInterval);
+        }
+        this.dao = dao;
+        this.sender = sender;
+        this.ownership = ownership;
+        this.channelStart = channelStart;
+        this.channelEnd = channelEnd;
+        this.lease = lease;
+        this.renewInterval = renewInterval.toNanos();
+        dao.createChannels(channelStart, channelEnd);
+        leaseThread = new Thread(this::doLease, "channel-lease-thread");
+        leaseThread.setDaemon(true);
+        leaseThread.start();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        running = false;
+        LockSupport.unpark(leaseThread);
+        try {
+            leaseThread.join(Duration.ofSeconds(5).toMillis());
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        // channels are given away right now, so others do not wait for lease expiration
+        apply(Set.of());
+        try {
+            dao.leave(owner);
+        } catch (Throwable e) {
+            log.warn("Unable to release channels, they will be taken after lease expiration", e);
+        }
+    }
+
+    private void doLease() {
+        while (running) {
+            try {
+                // database extends leases from the time of its statements, which is
+                // not earlier than this, so local expiration never comes after real one
+                long start = System.nanoTime();
+                rebalance();
+                renewedAt = start;
+            } catch (Throwable e) {
+                log.error("Failed to renew channel leases", e);
+                if (System.nanoTime() - renewedAt >= lease.toNanos() && !owned.isEmpty()) {
+                    // our leases are expired, so channels may be owned by others already
+                    log.warn("Channel leases expired, all channels are dropped");
+                    apply(Set.of());
+                }
+            }
+            LockSupport.parkNanos(renewInterval);
+        }
+    }
+
+    private void rebalance() {
+        int instances = Math.max(1, dao.heartbeat(owner, lease));
+        int channels = channelEnd - channelStart;
+        int share = (channels + instances - 1) / instances;
+        var next = new TreeSet<>(dao.renew(owner, lease));
+        if (next.size() > share) {
+            // highest channels are given away, local channels are removed
+            // before lease is released, so we do not send them with others
+            List<Integer> excess = new TreeSet<>(next).descendingSet().stream().limit(next.size() - share).toList();
+            excess.forEach(next::remove);
+            apply(next);
+            dao.release(owner, excess);
+            return;
+        }
+        if (next.size() < share) {
+            next.addAll(dao.acquire(owner, lease, channelStart, channelEnd, share - next.size()));
+        }
+        apply(next);
+    }
+
+    private void apply(Set<Integer> next) {
+        Set<Integer> removed = new HashSet<>(owned);
+        removed.removeAll(next);
+        Set<Integer> added = new HashSet<>(next);
+        added.removeAll(owned);
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        // source stops reading removed channels before they are removed from sender,
+        // and starts reading added ones after sender has workers for them
+        Set<Integer> kept = new HashSet<>(owned);
+        kept.removeAll(removed);
+        ownership.setChannels(kept);
+        removed.forEach(sender::removeChannel);
+        added.forEach(sender::addChannel);
+        ownership.setChannels(next);
+        owned = new TreeSet<>(next);
+        log.info("Channels owned: {}", owned);
+    }
+}
@@ -0,0 +1,25 @@
+package com.lastrix.scp.writesender.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Channels currently leased by this instance, written by {@link ChannelLeaseService}
+ * and read by source, kept apart from lease service, because it depends on sender
+ * and sender depends on source
+ */
+@Component
+@ConditionalOnProperty(value = "scp.wss.worker.channels.lease.enabled", havingValue = "true")
+public class ChannelOwnership {
+    private volatile Set<Integer> channels = Set.of();
+
+    public Set<Integer> getChannels() {
+        return channels;
+    }
+
+    void setChannels(Set<Integer> channels) {
+        this.channels = Set.copyOf(channels);
+    }
+}
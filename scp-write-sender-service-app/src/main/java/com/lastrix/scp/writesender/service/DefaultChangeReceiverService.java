@@ -1,5 +1,7 @@
 package com.lastrix.scp.writesender.service;
 
+import com.lastrix.scp.common.ExecutionMode;
+import com.lastrix.scp.common.IdHasher;
 import com.lastrix.scp.receiver.ChangeReceiver;
 import com.lastrix.scp.receiver.ChangeReceiverService;
 import com.lastrix.scp.receiver.ChangeSinkService;
@@ -14,12 +16,14 @@ public class DefaultChangeReceiverService extends ChangeReceiverService<Enrollee
             ChangeReceiver<EnrolleeSelectId> receiver,
             @Value("${scp.wss.confirm.chunk-size}") int sinkChunkSize,
             @Value("${scp.wss.confirm.max-chunk-size}") int maxSinkChunkSize,
-            @Value("${scp.wss.confirm.receive-buffer-size}") int receiveBufferSize) {
-        super(sink, receiver, sinkChunkSize, maxSinkChunkSize, receiveBufferSize);
+            @Value("${scp.wss.confirm.receive-buffer-size}") int receiveBufferSize,
+            @Value("${scp.wss.confirm.dedup-capacity}") int dedupCapacity,
+            @Value("${scp.wss.execution-mode}") ExecutionMode executionMode) {
+        super(sink, receiver, sinkChunkSize, maxSinkChunkSize, receiveBufferSize, dedupCapacity, executionMode);
     }
 
     @Override
-    protected Object idOf(EnrolleeSelectId c) {
-        return c;
+    protected void idOf(EnrolleeSelectId c, IdHasher id) {
+        id.putUUID(c.getUserId()).putInt(c.getSessionId()).putUUID(c.getSpecId()).putInt(c.getOrdinal());
     }
 }
@@ -1,42 +1,82 @@
 package com.lastrix.scp.writesender.service;
 
+import com.lastrix.scp.common.IdHasher;
 import com.lastrix.scp.sender.ChangeSender;
+import com.lastrix.scp.sender.ChangeSenderConfig;
 import com.lastrix.scp.sender.ChangeSenderService;
 import com.lastrix.scp.sender.ChangeSourceService;
+import com.lastrix.scp.writesender.codec.EnrolleeSelectBinaryCodec;
 import com.lastrix.scp.writesender.model.EnrolleeSelect;
-import com.lastrix.scp.writesender.model.EnrolleeSelectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
 @Service
 public class DefaultChangeSenderService extends ChangeSenderService<EnrolleeSelect> {
     private static final Logger log = LoggerFactory.getLogger(DefaultChangeSenderService.class);
+    private static final int URGENT = 0;
+    private static final int ROUTINE = 1;
     private final int channelStart;
     private final int channelEnd;
     private final int channelMask;
+    private final DeliveryLagTracker lagTracker;
 
     @Autowired
     public DefaultChangeSenderService(
             ChangeSourceService<EnrolleeSelect> source,
             ChangeSender<EnrolleeSelect> sender,
-            @Value("${scp.wss.worker.parallelism}") int parallelism,
-            @Value("${scp.wss.worker.channels.count}") int channels,
-            @Value("${scp.wss.worker.max-processing-chunk}") int maxProcessingChunk,
+            ChangeSenderConfig config,
             @Value("${scp.wss.worker.channels.start}") int channelStart,
             @Value("${scp.wss.worker.channels.end}") int channelEnd,
-            @Value("${scp.wss.worker.channels.mask}") int channelMask) {
-        super(source, sender, parallelism, channels, maxProcessingChunk);
+            @Value("${scp.wss.worker.channels.mask}") int channelMask,
+            DeliveryLagTracker lagTracker) {
+        // snapshot is local, so its format does not depend on topic codec
+        super(source, sender, config, new EnrolleeSelectBinaryCodec());
         this.channelStart = channelStart;
         this.channelEnd = channelEnd;
         this.channelMask = channelMask;
+        this.lagTracker = lagTracker;
+    }
+
+    @Override
+    protected void idOf(EnrolleeSelect o, IdHasher id) {
+        // same parts as EnrolleeSelectId
+        id.putUUID(o.getUserId()).putInt(o.getSessionId()).putUUID(o.getSpecId()).putInt(o.getOrdinal());
+    }
+
+    @Override
+    protected int priorityOf(EnrolleeSelect o) {
+        // cancellations and confirmations should not wait behind backlog of routine changes,
+        // but only source knows whether earlier ordinal of selection is still pending,
+        // sending after it would put selection changes out of order
+        return o.isUrgent() ? URGENT : ROUTINE;
+    }
+
+    @Override
+    protected Object supersedeKeyOf(EnrolleeSelect o) {
+        // later ordinals of same selection replace earlier ones
+        return new SelectionKey(o.getUserId(), o.getSessionId(), o.getSpecId());
     }
 
     @Override
-    protected Object idOf(EnrolleeSelect o) {
-        return new EnrolleeSelectId(o.getUserId(), o.getSessionId(), o.getSpecId(), o.getOrdinal());
+    protected long versionOf(EnrolleeSelect o) {
+        return o.getOrdinal();
+    }
+
+    @Override
+    protected Instant sourceStampOf(EnrolleeSelect o) {
+        return o.getModifiedStamp();
+    }
+
+    @Override
+    protected void onAcknowledged(List<EnrolleeSelect> changes, int channel, long acknowledgedNanos) {
+        lagTracker.acknowledged(changes, channel, acknowledgedNanos);
     }
 
     @Override
@@ -49,4 +89,7 @@ public class DefaultChangeSenderService extends ChangeSenderService<EnrolleeSele
         }
         return channel;
     }
+
+    private record SelectionKey(UUID userId, int sessionId, UUID specId) {
+    }
 }
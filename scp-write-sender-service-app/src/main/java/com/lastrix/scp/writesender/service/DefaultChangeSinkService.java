@@ -5,7 +5,9 @@ import com.lastrix.scp.writesender.dao.EnrolleeDao;
 import com.lastrix.scp.writesender.model.EnrolleeSelectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -13,16 +15,25 @@ import java.util.List;
 public class DefaultChangeSinkService implements ChangeSinkService<EnrolleeSelectId> {
     private static final Logger log = LoggerFactory.getLogger(DefaultChangeSinkService.class);
     private final EnrolleeDao dao;
+    private final boolean bulk;
+    private final DeliveryLagTracker lagTracker;
 
-    public DefaultChangeSinkService(EnrolleeDao dao) {
+    public DefaultChangeSinkService(
+            EnrolleeDao dao,
+            @Value("${scp.wss.confirm.bulk}") boolean bulk,
+            DeliveryLagTracker lagTracker) {
         this.dao = dao;
+        this.bulk = bulk;
+        this.lagTracker = lagTracker;
     }
 
+    @Transactional("confirmTransactionManager")
     @Override
     public void commit(List<EnrolleeSelectId> changes) {
-        int c = dao.confirm(changes);
+        int c = bulk ? dao.bulkConfirm(changes).size() : dao.confirm(changes);
         if (c != changes.size()) {
             log.info("Fewer records updated than expected: {} of {}", c, changes.size());
         }
+        lagTracker.confirmed(changes);
     }
 }
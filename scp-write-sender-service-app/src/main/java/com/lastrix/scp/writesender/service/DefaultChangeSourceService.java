@@ -1,23 +1,87 @@
 package com.lastrix.scp.writesender.service;
 
+import com.lastrix.scp.sender.ChangePage;
 import com.lastrix.scp.sender.ChangeSourceService;
+import com.lastrix.scp.writesender.dao.ChannelFilter;
 import com.lastrix.scp.writesender.dao.EnrolleeDao;
+import com.lastrix.scp.writesender.dao.EnrolleeSelectCursor;
+import com.lastrix.scp.writesender.dao.PostgreChangeListener;
 import com.lastrix.scp.writesender.model.EnrolleeSelect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 @Service
+@ConditionalOnProperty(value = "scp.wss.source.type", havingValue = "table", matchIfMissing = true)
 public class DefaultChangeSourceService implements ChangeSourceService<EnrolleeSelect> {
     private static final Logger log = LoggerFactory.getLogger(DefaultChangeSourceService.class);
+    /**
+     * Cursor after urgent page, next page is the first one
+     */
+    private static final Object URGENT_READ = new Object();
 
     private final EnrolleeDao dao;
+    private final FetchMode fetchMode;
+    private final ObjectProvider<PostgreChangeListener> changeListener;
+    private final ChannelFilter channelFilter;
+    /**
+     * Channels leased by this instance, null if whole channel range is served
+     */
+    private final ChannelOwnership ownership;
+    private final Duration claimLease;
+    private final int fetchSize;
+    private final boolean bulkCommit;
+    private final TransactionTemplate streamTransaction;
+    /**
+     * Not read only, because claim mode updates rows. Template instead of annotation,
+     * so pages read through {@link #stream} by call on this are in transaction too
+     */
+    private final TransactionTemplate pageTransaction;
+    /**
+     * Identifies this instance in claimed rows
+     */
+    private final UUID claimToken = UUID.randomUUID();
+    /**
+     * Cancelled and confirmed changes are read before others
+     */
+    private final boolean urgentFirst;
 
-    public DefaultChangeSourceService(EnrolleeDao dao) {
+    public DefaultChangeSourceService(
+            EnrolleeDao dao,
+            @Value("${scp.wss.source.fetch-mode}") FetchMode fetchMode,
+            @Value("${scp.wss.source.claim-lease}") Duration claimLease,
+            @Value("${scp.wss.source.fetch-size}") int fetchSize,
+            @Value("${scp.wss.source.bulk-commit}") boolean bulkCommit,
+            @Value("${scp.wss.worker.priority.enabled}") boolean urgentFirst,
+            @Value("${scp.wss.worker.channels.start}") int channelStart,
+            @Value("${scp.wss.worker.channels.end}") int channelEnd,
+            @Value("${scp.wss.worker.channels.mask}") int channelMask,
+            ObjectProvider<PostgreChangeListener> changeListener,
+            ObjectProvider<ChannelOwnership> ownership,
+            PlatformTransactionManager transactionManager) {
         this.dao = dao;
+        this.fetchMode = fetchMode;
+        this.claimLease = claimLease;
+        this.fetchSize = fetchSize;
+        this.bulkCommit = bulkCommit;
+        this.urgentFirst = urgentFirst;
+        this.channelFilter = new ChannelFilter(channelStart, channelEnd, channelMask);
+        this.changeListener = changeListener;
+        this.ownership = ownership.getIfAvailable();
+        this.streamTransaction = new TransactionTemplate(transactionManager);
+        this.streamTransaction.setReadOnly(true);
+        this.pageTransaction = new TransactionTemplate(transactionManager);
     }
 
     @Transactional(readOnly = true)
@@ -26,14 +90,84 @@ public class DefaultChangeSourceService implements ChangeSourceService<EnrolleeS
         return dao.fetch(page);
     }
 
-    @Transactional
+    @Override
+    public ChangePage<EnrolleeSelect> fetchNext(Object cursor) {
+        return pageTransaction.execute(status -> fetchPage(cursor));
+    }
+
+    private ChangePage<EnrolleeSelect> fetchPage(Object cursor) {
+        var filter = channelFilter();
+        if (filter.isEmpty() && fetchMode != FetchMode.OFFSET) {
+            // no channels leased yet
+            return new ChangePage<>(List.of(), null);
+        }
+        return switch (fetchMode) {
+            // stream mode uses seek for page access
+            case SEEK, STREAM -> cursor == null && urgentFirst
+                    ? fetchUrgent(filter)
+                    : dao.fetchAfter(cursor == URGENT_READ ? null : (EnrolleeSelectCursor) cursor, filter);
+            // claimed rows are not returned again, so there is no need for cursor
+            case CLAIM -> new ChangePage<>(dao.claim(claimToken, claimLease, filter, urgentFirst), null);
+            case OFFSET -> ChangeSourceService.super.fetchNext(cursor);
+        };
+    }
+
+    @Override
+    public int stream(Predicate<EnrolleeSelect> consumer) {
+        if (fetchMode == FetchMode.STREAM) {
+            var filter = channelFilter();
+            if (filter.isEmpty()) {
+                return 0;
+            }
+            // server side cursor exists only inside transaction
+            return streamTransaction.execute(status -> {
+                int count = 0;
+                boolean more = true;
+                if (urgentFirst) {
+                    // whole urgent page is handed to consumer, as any other page
+                    for (var c : dao.fetchUrgent(filter)) {
+                        count++;
+                        more = consumer.test(c) && more;
+                    }
+                }
+                // rows of cursor are handed one by one, nothing is read after consumer stops
+                return more ? count + dao.stream(filter, fetchSize, consumer) : count;
+            });
+        }
+        // each page is read in its own transaction by fetchNext in other modes
+        return ChangeSourceService.super.stream(consumer);
+    }
+
+    /**
+     * Urgent page starts every pass, pages after it are read from
+     * the beginning, so urgent changes come twice and second time
+     * they are skipped by sender as duplicates
+     */
+    private ChangePage<EnrolleeSelect> fetchUrgent(ChannelFilter filter) {
+        var urgent = dao.fetchUrgent(filter);
+        return urgent.isEmpty()
+                ? dao.fetchAfter(null, filter)
+                : new ChangePage<>(urgent, URGENT_READ);
+    }
+
+    private ChannelFilter channelFilter() {
+        return ownership == null ? channelFilter : channelFilter.withOwned(ownership.getChannels());
+    }
+
+    @Transactional("commitTransactionManager")
     @Override
     public void commit(List<EnrolleeSelect> changes) {
         // we may change fewer entries than expected
         // because of modification
-        var c = dao.commit(changes);
+        var c = bulkCommit ? dao.bulkCommit(changes).size() : dao.commit(changes);
         if (c != changes.size()) {
             log.trace("Fewer changes than expected: {}, should be {}", c, changes.size());
         }
     }
+
+    @Override
+    public void subscribe(Runnable listener) {
+        // listener exists only if notifications enabled
+        changeListener.ifAvailable(x -> x.subscribe(listener));
+    }
 }
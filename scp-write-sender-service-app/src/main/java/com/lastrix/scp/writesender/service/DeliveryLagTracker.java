@@ -0,0 +1,119 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangeSenderService;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers when changes were acknowledged by broker, so lag from acknowledgement
+ * till confirmation can be recorded per channel once confirmation comes back through
+ * confirm topic. Only the latest acknowledged changes are remembered, the oldest ones
+ * are forgotten once capacity is reached, so lost confirmations do not leak.
+ * <p>
+ * Acknowledgements come on producer threads, so they are only queued there without
+ * locks, confirming thread indexes them before it looks confirmed changes up.
+ */
+@Component
+public class DeliveryLagTracker implements MeterBinder {
+    private final int capacity;
+    /**
+     * Acknowledged batches not yet indexed
+     */
+    private final Queue<Batch> queued = new ConcurrentLinkedQueue<>();
+    /**
+     * Changes in queued batches, new batches are dropped above capacity
+     */
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    /**
+     * Acknowledged changes in acknowledgement order, guarded by itself
+     */
+    private final Map<EnrolleeSelectId, Sent> sent;
+    private final Map<Integer, Timer> confirmLag = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    public DeliveryLagTracker(@Value("${scp.wss.lag.confirm-capacity}") int capacity) {
+        this.capacity = capacity;
+        this.sent = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EnrolleeSelectId, Sent> eldest) {
+                return size() > DeliveryLagTracker.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Remember acknowledged changes, nothing is remembered till
+     * tracker is bound to registry or if capacity is zero
+     */
+    public void acknowledged(List<EnrolleeSelect> changes, int channel, long acknowledgedNanos) {
+        if (registry == null || capacity <= 0) {
+            return;
+        }
+        if (queuedCount.addAndGet(changes.size()) > capacity) {
+            // nobody confirms for a while, these would be evicted anyway
+            queuedCount.addAndGet(-changes.size());
+            return;
+        }
+        queued.add(new Batch(changes, new Sent(channel, acknowledgedNanos)));
+    }
+
+    public void confirmed(List<EnrolleeSelectId> ids) {
+        var r = registry;
+        if (r == null || capacity <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (sent) {
+            Batch b;
+            while ((b = queued.poll()) != null) {
+                queuedCount.addAndGet(-b.changes().size());
+                for (var c : b.changes()) {
+                    sent.put(new EnrolleeSelectId(c.getUserId(), c.getSessionId(), c.getSpecId(), c.getOrdinal()), b.sent());
+                }
+            }
+            for (var id : ids) {
+                var s = sent.remove(id);
+                if (s != null) {
+                    timerOf(r, s.channel()).record(now - s.nanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    private Timer timerOf(MeterRegistry r, int channel) {
+        var t = confirmLag.get(channel);
+        if (t == null) {
+            t = confirmLag.computeIfAbsent(channel, c -> Timer.builder("scp.sender.lag.confirm")
+                    .description("Time from acknowledgement of change by broker till its confirmation")
+                    .publishPercentiles(ChangeSenderService.LAG_PERCENTILES)
+                    .tag("channel", String.valueOf(c))
+                    .register(r));
+        }
+        return t;
+    }
+
+    private record Sent(int channel, long nanos) {
+    }
+
+    private record Batch(List<EnrolleeSelect> changes, Sent sent) {
+    }
+}
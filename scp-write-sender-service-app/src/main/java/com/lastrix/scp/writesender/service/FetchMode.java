@@ -0,0 +1,26 @@
+package com.lastrix.scp.writesender.service;
+
+/**
+ * Defines how {@link DefaultChangeSourceService} reads pages from database
+ */
+public enum FetchMode {
+    /**
+     * Pages are read with LIMIT/OFFSET, each page scans all previous ones
+     */
+    OFFSET,
+    /**
+     * Pages are read with keyset (seek) condition on last row key,
+     * each page costs the same regardless of position
+     */
+    SEEK,
+    /**
+     * All changes are read by single query through server side cursor, each row
+     * is handed to sender as soon as it arrives
+     */
+    STREAM,
+    /**
+     * Pages are claimed for this instance with lease, rows locked or claimed by
+     * other instances are skipped, so multiple instances may share same channels
+     */
+    CLAIM
+}
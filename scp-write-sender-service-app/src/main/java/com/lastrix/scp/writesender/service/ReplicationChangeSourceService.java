@@ -0,0 +1,276 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangePage;
+import com.lastrix.scp.sender.ChangeSourceService;
+import com.lastrix.scp.writesender.dao.PgOutputDecoder;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.postgresql.PGConnection;
+import org.postgresql.PGProperty;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Streams enrollee_select changes from PostgreSQL logical replication slot (pgoutput plugin).
+ * Unlike {@link DefaultChangeSourceService} no polling queries and no state updates are required,
+ * the slot position is acknowledged only when all changes of transaction and all transactions before
+ * it were committed, which happens after successful send.
+ * Requires wal_level=logical and publication from db/enrollee_select_publication.sql.
+ */
+@Service
+@ConditionalOnProperty(value = "scp.wss.source.type", havingValue = "replication")
+public class ReplicationChangeSourceService implements ChangeSourceService<EnrolleeSelect> {
+    private static final Logger log = LoggerFactory.getLogger(ReplicationChangeSourceService.class);
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-z_][a-z0-9_]*");
+    private static final int PAGE_SIZE = 128;
+    /**
+     * How many committed identifiers we remember, after reconnect server replays
+     * not yet acknowledged transactions and we should not send those changes again
+     */
+    private static final int COMMITTED_SET_MAX_SIZE = 65535;
+
+    private final DataSourceProperties properties;
+    private final String slot;
+    private final String publication;
+    private final PgOutputDecoder decoder = new PgOutputDecoder();
+    final PgOutputDecoder.Handler handler = new DecoderHandler();
+    /**
+     * The last version of every row of transaction being decoded, they are not visible till commit message
+     */
+    private final Map<EnrolleeSelectId, EnrolleeSelect> txRows = new LinkedHashMap<>();
+    /**
+     * Rows of committed transactions not yet returned by fetch, in commit order
+     */
+    private final Map<EnrolleeSelectId, EnrolleeSelect> ready = new LinkedHashMap<>();
+    /**
+     * Transaction end position to count of distinct rows not yet committed, ordered by position
+     */
+    private final TreeMap<Long, Integer> pending = new TreeMap<>();
+    /**
+     * Position of transaction for each row returned by fetch and not yet committed
+     */
+    private final Map<EnrolleeSelectId, Long> inflight = new HashMap<>();
+    private final Set<EnrolleeSelectId> committed = Collections.newSetFromMap(new LinkedHashMap<>(COMMITTED_SET_MAX_SIZE + 1) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<EnrolleeSelectId, Boolean> eldest) {
+            return size() > COMMITTED_SET_MAX_SIZE;
+        }
+    });
+    private Connection connection;
+    private PGReplicationStream stream;
+    private long ackLsn = 0;
+
+    public ReplicationChangeSourceService(
+            DataSourceProperties properties,
+            @Value("${scp.wss.source.replication.slot}") String slot,
+            @Value("${scp.wss.source.replication.publication}") String publication) {
+        if (!NAME_PATTERN.matcher(slot).matches() || !NAME_PATTERN.matcher(publication).matches()) {
+            throw new IllegalArgumentException("Illegal replication slot or publication name: " + slot + ", " + publication);
+        }
+        this.properties = properties;
+        this.slot = slot;
+        this.publication = publication;
+    }
+
+    @PreDestroy
+    public synchronized void preDestroy() {
+        closeStream();
+    }
+
+    @Override
+    public List<EnrolleeSelect> fetch(int page) {
+        // there are no pages in replication stream, we always read next changes
+        return fetchNext(null).changes();
+    }
+
+    @Override
+    public synchronized ChangePage<EnrolleeSelect> fetchNext(Object cursor) {
+        try {
+            openStream();
+            ByteBuffer b;
+            while (ready.size() < PAGE_SIZE && (b = stream.readPending()) != null) {
+                decoder.decode(b, handler);
+            }
+        } catch (SQLException e) {
+            closeStream();
+            throw new IllegalStateException("Failed to read replication stream", e);
+        }
+        return new ChangePage<>(takeReady(), null);
+    }
+
+    /**
+     * Take next page of decoded rows, they are tracked in inflight till commit
+     */
+    synchronized List<EnrolleeSelect> takeReady() {
+        List<EnrolleeSelect> list = new ArrayList<>(Math.min(ready.size(), PAGE_SIZE));
+        var it = ready.values().iterator();
+        while (list.size() < PAGE_SIZE && it.hasNext()) {
+            list.add(it.next());
+            it.remove();
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized void commit(List<EnrolleeSelect> changes) {
+        for (EnrolleeSelect c : changes) {
+            var id = idOf(c);
+            Long lsn = inflight.remove(id);
+            if (lsn != null) {
+                committed.add(id);
+                pending.computeIfPresent(lsn, (k, v) -> v - 1);
+            }
+        }
+        acknowledge();
+    }
+
+    @Override
+    public synchronized void skip(List<EnrolleeSelect> changes) {
+        // sender never takes them, server would never send them again
+        // before restart, so they must not hold slot position
+        commit(changes);
+    }
+
+    /**
+     * Position acknowledged to server so far
+     */
+    synchronized long getAcknowledgedLsn() {
+        return ackLsn;
+    }
+
+    private void acknowledge() {
+        long lsn = ackLsn;
+        // we may acknowledge only continuous prefix of completed transactions
+        while (!pending.isEmpty() && pending.firstEntry().getValue() == 0) {
+            lsn = pending.pollFirstEntry().getKey();
+        }
+        if (lsn != ackLsn) {
+            ackLsn = lsn;
+            if (stream != null) {
+                // actual status update is sent by driver on status interval
+                var v = LogSequenceNumber.valueOf(lsn);
+                stream.setFlushedLSN(v);
+                stream.setAppliedLSN(v);
+            }
+        }
+    }
+
+    private void openStream() throws SQLException {
+        if (stream != null) return;
+        var props = new Properties();
+        PGProperty.USER.set(props, properties.determineUsername());
+        PGProperty.PASSWORD.set(props, properties.determinePassword());
+        PGProperty.ASSUME_MIN_SERVER_VERSION.set(props, "10");
+        PGProperty.REPLICATION.set(props, "database");
+        PGProperty.PREFER_QUERY_MODE.set(props, "simple");
+        connection = DriverManager.getConnection(properties.determineUrl(), props);
+        var pg = connection.unwrap(PGConnection.class);
+        if (!slotExists()) {
+            log.info("Creating logical replication slot {}", slot);
+            pg.getReplicationAPI()
+                    .createReplicationSlot()
+                    .logical()
+                    .withSlotName(slot)
+                    .withOutputPlugin("pgoutput")
+                    .make();
+        }
+        stream = pg.getReplicationAPI()
+                .replicationStream()
+                .logical()
+                .withSlotName(slot)
+                .withSlotOption("proto_version", 1)
+                .withSlotOption("publication_names", publication)
+                .withStatusInterval(10, TimeUnit.SECONDS)
+                .start();
+    }
+
+    private boolean slotExists() throws SQLException {
+        try (var st = connection.prepareStatement("SELECT 1 FROM pg_replication_slots WHERE slot_name = ?")) {
+            st.setString(1, slot);
+            try (var rs = st.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private void closeStream() {
+        stream = null;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close replication connection", e);
+            }
+            connection = null;
+        }
+        // server replays everything after last acknowledged position, so we must
+        // forget everything not yet returned, rows already returned are still tracked
+        // in inflight and will be matched again during replay
+        for (var id : ready.keySet()) {
+            inflight.remove(id);
+        }
+        ready.clear();
+        txRows.clear();
+        pending.clear();
+    }
+
+    private static EnrolleeSelectId idOf(EnrolleeSelect o) {
+        return new EnrolleeSelectId(o.getUserId(), o.getSessionId(), o.getSpecId(), o.getOrdinal());
+    }
+
+    private final class DecoderHandler implements PgOutputDecoder.Handler {
+        @Override
+        public void onRow(EnrolleeSelect row, short state) {
+            // the last version of row in transaction decides, only rows waiting
+            // for send are taken, our own confirm updates are also replicated
+            if (state == 0) {
+                txRows.put(idOf(row), row);
+            } else {
+                txRows.remove(idOf(row));
+            }
+        }
+
+        @Override
+        public void onCommit(long endLsn) {
+            int count = 0;
+            for (var e : txRows.entrySet()) {
+                var id = e.getKey();
+                if (committed.contains(id)) {
+                    // already sent, replayed after reconnect
+                    continue;
+                }
+                Long previous = inflight.put(id, endLsn);
+                if (previous == null) {
+                    ready.put(id, e.getValue());
+                } else {
+                    // row now belongs to this transaction, so earlier one no longer
+                    // waits for it, row not yet returned is replaced by its latest
+                    // version, rows already returned are not returned again
+                    if (previous != endLsn) {
+                        pending.computeIfPresent(previous, (k, v) -> v - 1);
+                    }
+                    ready.replace(id, e.getValue());
+                }
+                count++;
+            }
+            txRows.clear();
+            pending.put(endLsn, count);
+            acknowledge();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+-- Claim columns for scp.wss.source.fetch-mode=claim.
+-- Schema is owned by write service, so this script should be applied there,
+-- after db/enrollee_select_pending.sql which has index of pending rows.
+ALTER TABLE scp_write_service.enrollee_select
+    ADD COLUMN IF NOT EXISTS claimed_by    UUID,
+    ADD COLUMN IF NOT EXISTS claimed_until TIMESTAMP WITH TIME ZONE;
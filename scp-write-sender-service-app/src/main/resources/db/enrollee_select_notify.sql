@@ -0,0 +1,34 @@
+-- Notification trigger for scp.wss.source.notify mode.
+-- Schema is owned by write service, so this script should be applied there.
+-- Notifications with same payload are collapsed by PostgreSQL inside single transaction,
+-- so bulk inserts produce single wake up.
+-- Channel is passed as trigger argument, it must match scp.wss.source.notify.channel
+-- (scp_wss_enrollee_select by default), change both triggers below if it is overridden.
+CREATE OR REPLACE FUNCTION scp_write_service.enrollee_select_notify() RETURNS trigger AS
+$$
+BEGIN
+    PERFORM pg_notify(TG_ARGV[0], '');
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS enrollee_select_notify ON scp_write_service.enrollee_select;
+DROP TRIGGER IF EXISTS enrollee_select_notify_insert ON scp_write_service.enrollee_select;
+DROP TRIGGER IF EXISTS enrollee_select_notify_update ON scp_write_service.enrollee_select;
+
+-- only rows waiting for send are interesting, our own state updates should not wake us up
+CREATE TRIGGER enrollee_select_notify_insert
+    AFTER INSERT
+    ON scp_write_service.enrollee_select
+    FOR EACH ROW
+    WHEN (NEW.state = 0)
+EXECUTE FUNCTION scp_write_service.enrollee_select_notify('scp_wss_enrollee_select');
+
+-- claims of sender update claimed_by and claimed_until only, content changes
+-- of write service always move modified_stamp
+CREATE TRIGGER enrollee_select_notify_update
+    AFTER UPDATE
+    ON scp_write_service.enrollee_select
+    FOR EACH ROW
+    WHEN (NEW.state = 0 AND OLD.modified_stamp IS DISTINCT FROM NEW.modified_stamp)
+EXECUTE FUNCTION scp_write_service.enrollee_select_notify('scp_wss_enrollee_select');
@@ -0,0 +1,7 @@
+-- Index for scp.wss.source.fetch-mode=seek, stream and claim.
+-- Schema is owned by write service, so this script should be applied there.
+-- Pages are read in key order after last row of previous page, only pending rows
+-- are scanned by sender, so partial index stays small.
+CREATE INDEX IF NOT EXISTS enrollee_select_pending_idx
+    ON scp_write_service.enrollee_select (modified_stamp, user_id, session_id, spec_id, ordinal)
+    WHERE state = 0;
@@ -0,0 +1,9 @@
+-- Index for scp.wss.worker.priority.enabled=true.
+-- Schema is owned by write service, so this script should be applied there.
+-- Cancelled and confirmed pending rows are read before others on every pass,
+-- partial index lets database find them without scanning whole backlog.
+-- Row is urgent only if no earlier ordinal of its selection is pending, this check
+-- is a primary key lookup and needs no index of its own.
+CREATE INDEX IF NOT EXISTS enrollee_select_urgent_idx
+    ON scp_write_service.enrollee_select (modified_stamp)
+    WHERE state = 0 AND (canceled_stamp IS NOT NULL OR confirmed_stamp IS NOT NULL);
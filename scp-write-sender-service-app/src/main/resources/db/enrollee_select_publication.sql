@@ -0,0 +1,6 @@
+-- Publication for scp.wss.source.type=replication mode.
+-- Schema is owned by write service, so this script should be applied there.
+-- Server must run with wal_level=logical, replication slot is created by sender on first start.
+CREATE PUBLICATION scp_wss_enrollee_select
+    FOR TABLE scp_write_service.enrollee_select
+    WITH (publish = 'insert, update');
@@ -0,0 +1,17 @@
+-- Channel leases for scp.wss.worker.channels.lease.enabled=true.
+-- Schema is owned by write service, so this script should be applied there.
+-- Rows of channels are created by senders on start, channel without owner
+-- or with expired lease may be taken by any live instance.
+CREATE TABLE IF NOT EXISTS scp_write_service.sender_channel_lease
+(
+    channel     INT PRIMARY KEY,
+    owner       UUID,
+    lease_until TIMESTAMP WITH TIME ZONE
+);
+
+-- live sender instances, each takes its fair share of channels
+CREATE TABLE IF NOT EXISTS scp_write_service.sender_instance
+(
+    id          UUID PRIMARY KEY,
+    alive_until TIMESTAMP WITH TIME ZONE NOT NULL
+);
@@ -0,0 +1,97 @@
+package com.lastrix.scp.writesender.codec;
+
+import com.lastrix.scp.sender.ChangeBuffer;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnrolleeSelectBinaryCodecTest {
+    private final EnrolleeSelectBinaryCodec codec = new EnrolleeSelectBinaryCodec();
+
+    @Test
+    void roundTripWithoutStamps() {
+        assertRoundTrip(select(UUID.randomUUID(), 1, UUID.randomUUID(), (short) 2, 3, (short) 4, null, null, null));
+    }
+
+    @Test
+    void roundTripWithEveryCombinationOfStamps() {
+        var stamp = Instant.parse("2022-09-01T10:15:30.123456789Z");
+        for (int flags = 0; flags < 8; flags++) {
+            assertRoundTrip(select(UUID.randomUUID(), 7, UUID.randomUUID(), (short) 1, 100, (short) 5,
+                    (flags & 1) != 0 ? stamp : null,
+                    (flags & 2) != 0 ? stamp.plusNanos(1) : null,
+                    (flags & 4) != 0 ? stamp.minusSeconds(1) : null));
+        }
+    }
+
+    @Test
+    void roundTripOfBoundaryValues() {
+        var zero = new UUID(0, 0);
+        var ones = new UUID(-1, -1);
+        assertRoundTrip(select(zero, Integer.MIN_VALUE, ones, Short.MIN_VALUE, Integer.MIN_VALUE, Short.MIN_VALUE,
+                Instant.EPOCH, Instant.EPOCH.minusNanos(1), Instant.parse("1677-09-21T00:12:44Z")));
+        assertRoundTrip(select(ones, Integer.MAX_VALUE, zero, Short.MAX_VALUE, Integer.MAX_VALUE, Short.MAX_VALUE,
+                Instant.parse("2262-04-11T23:47:16.854775807Z"), Instant.ofEpochSecond(0, 999_999_999), Instant.EPOCH.plusNanos(1)));
+        assertRoundTrip(select(zero, 0, zero, (short) -1, -1, (short) 0, null, null, null));
+    }
+
+    @Test
+    void decodesFromMiddleOfArray() {
+        var s = select(UUID.randomUUID(), 1, UUID.randomUUID(), (short) 2, 3, (short) 4, Instant.EPOCH, null, null);
+        var encoded = encode(s);
+        var data = new byte[encoded.length + 10];
+        Arrays.fill(data, (byte) 0x7F);
+        System.arraycopy(encoded, 0, data, 5, encoded.length);
+        assertSelectEquals(s, codec.decode(data, 5, encoded.length));
+    }
+
+    @Test
+    void truncatedInputIsRejected() {
+        var encoded = encode(select(UUID.randomUUID(), 300, UUID.randomUUID(), (short) 2, 70_000, (short) 4,
+                Instant.EPOCH, Instant.EPOCH, Instant.EPOCH));
+        for (int length = 0; length < encoded.length; length++) {
+            int l = length;
+            assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded, 0, l), "length " + l);
+        }
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        var encoded = encode(select(UUID.randomUUID(), 1, UUID.randomUUID(), (short) 2, 3, (short) 4, null, null, null));
+        encoded[0] = EnrolleeSelectBinaryCodec.VERSION + 1;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded, 0, encoded.length));
+    }
+
+    private void assertRoundTrip(EnrolleeSelect s) {
+        var encoded = encode(s);
+        assertSelectEquals(s, codec.decode(encoded, 0, encoded.length));
+    }
+
+    private byte[] encode(EnrolleeSelect s) {
+        var out = new ChangeBuffer(16);
+        codec.encode(s, out);
+        return out.toByteArray();
+    }
+
+    private static EnrolleeSelect select(UUID userId, int sessionId, UUID specId, short status, int score, short ordinal,
+                                         Instant created, Instant confirmed, Instant cancelled) {
+        return new EnrolleeSelect(userId, sessionId, specId, status, score, created, confirmed, cancelled, ordinal);
+    }
+
+    private static void assertSelectEquals(EnrolleeSelect expected, EnrolleeSelect actual) {
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getSessionId(), actual.getSessionId());
+        assertEquals(expected.getSpecId(), actual.getSpecId());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getScore(), actual.getScore());
+        assertEquals(expected.getOrdinal(), actual.getOrdinal());
+        assertEquals(expected.getCreatedStamp(), actual.getCreatedStamp());
+        assertEquals(expected.getConfirmedStamp(), actual.getConfirmedStamp());
+        assertEquals(expected.getCancelledStamp(), actual.getCancelledStamp());
+    }
+}
@@ -0,0 +1,64 @@
+package com.lastrix.scp.writesender.codec;
+
+import com.lastrix.scp.sender.ChangeBuffer;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnrolleeSelectIdBinaryCodecTest {
+    private final EnrolleeSelectIdBinaryCodec codec = new EnrolleeSelectIdBinaryCodec();
+
+    @Test
+    void roundTrip() {
+        assertRoundTrip(new EnrolleeSelectId(UUID.randomUUID(), 12, UUID.randomUUID(), 3));
+    }
+
+    @Test
+    void roundTripOfBoundaryValues() {
+        var zero = new UUID(0, 0);
+        var ones = new UUID(-1, -1);
+        assertRoundTrip(new EnrolleeSelectId(zero, Integer.MIN_VALUE, ones, Integer.MIN_VALUE));
+        assertRoundTrip(new EnrolleeSelectId(ones, Integer.MAX_VALUE, zero, Integer.MAX_VALUE));
+        assertRoundTrip(new EnrolleeSelectId(zero, -1, zero, Short.MIN_VALUE));
+        assertRoundTrip(new EnrolleeSelectId(ones, 0, ones, Short.MAX_VALUE));
+    }
+
+    @Test
+    void decodesWholeArrayAndSlice() {
+        var id = new EnrolleeSelectId(UUID.randomUUID(), 1, UUID.randomUUID(), 2);
+        var encoded = encode(id);
+        assertEquals(id, codec.decode(encoded));
+        var data = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, data, 2, encoded.length);
+        assertEquals(id, codec.decode(data, 2, encoded.length));
+    }
+
+    @Test
+    void truncatedInputIsRejected() {
+        var encoded = encode(new EnrolleeSelectId(UUID.randomUUID(), 70_000, UUID.randomUUID(), 300));
+        for (int length = 0; length < encoded.length; length++) {
+            int l = length;
+            assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded, 0, l), "length " + l);
+        }
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        var encoded = encode(new EnrolleeSelectId(UUID.randomUUID(), 1, UUID.randomUUID(), 2));
+        encoded[0] = EnrolleeSelectBinaryCodec.VERSION + 1;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(encoded));
+    }
+
+    private void assertRoundTrip(EnrolleeSelectId id) {
+        assertEquals(id, codec.decode(encode(id)));
+    }
+
+    private byte[] encode(EnrolleeSelectId id) {
+        var out = new ChangeBuffer(16);
+        codec.encode(id, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,147 @@
+package com.lastrix.scp.writesender.dao;
+
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostgreEnrolleeDaoTest {
+    /**
+     * Keyword followed by anything but whitespace, like ORDER BYes.modified_stamp
+     */
+    private static final Pattern GLUED_KEYWORD = Pattern.compile("\\b(AND|BY|LIMIT|WHERE|FROM|AS)[^\\s]");
+
+    private final CapturingJdbcTemplate jdbc = new CapturingJdbcTemplate();
+    private final PostgreEnrolleeDao dao = new PostgreEnrolleeDao(jdbc, jdbc, jdbc);
+
+    @Test
+    void claimSqlKeepsSpacesBetweenPieces() {
+        for (var urgentFirst : List.of(false, true)) {
+            for (var filter : List.of(new ChannelFilter(0, 4, 0xFF), new ChannelFilter(0, 4, 0xFF, Set.of(1, 3)))) {
+                dao.claim(UUID.randomUUID(), Duration.ofSeconds(30), filter, urgentFirst);
+                var sql = normalize(jdbc.sql);
+                assertFalse(GLUED_KEYWORD.matcher(sql).find(), sql);
+                assertTrue(sql.contains(" LIMIT 128 FOR UPDATE SKIP LOCKED"), sql);
+                assertTrue(sql.contains(urgentFirst ? " ORDER BY urgent DESC, es.modified_stamp " : " ORDER BY es.modified_stamp "), sql);
+                assertTrue(sql.contains(urgentFirst ? " AND p.state = 0)) AS urgent " : " false AS urgent "), sql);
+                assertTrue(sql.contains(" AND (('x' || right(es.spec_id::text, 8))::bit(32)::int & ?) >= ?"), sql);
+                assertEquals(placeholders(sql), jdbc.args.length, sql);
+            }
+        }
+    }
+
+    @Test
+    void cursorStampIsBoundWithOffset() {
+        var stamp = Instant.parse("2022-09-01T10:15:30.123456Z");
+        var cursor = new EnrolleeSelectCursor(stamp, UUID.randomUUID(), 1, UUID.randomUUID(), (short) 2);
+        dao.fetchAfter(cursor, new ChannelFilter(0, 4, 0xFF));
+        // four arguments of channel condition come first
+        var bound = assertInstanceOf(OffsetDateTime.class, jdbc.args[4]);
+        assertEquals(stamp, bound.toInstant());
+        assertEquals(placeholders(normalize(jdbc.sql)), jdbc.args.length);
+    }
+
+    @Test
+    void commitUpdatesOnlyPendingRows() {
+        var changes = List.of(select());
+        dao.commit(changes);
+        assertTrue(normalize(jdbc.sql).endsWith(" AND state = 0"), jdbc.sql);
+        dao.bulkCommit(changes);
+        assertTrue(normalize(jdbc.sql).contains(" AND es.state = 0 RETURNING "), jdbc.sql);
+    }
+
+    @Test
+    void confirmUpdatesRowsInAnyState() {
+        var ids = List.of(new EnrolleeSelectId(UUID.randomUUID(), 1, UUID.randomUUID(), 1));
+        dao.confirm(ids);
+        assertFalse(jdbc.sql.contains("state = 0"), jdbc.sql);
+        dao.bulkConfirm(ids);
+        assertFalse(jdbc.sql.contains("state = 0"), jdbc.sql);
+    }
+
+    private static EnrolleeSelect select() {
+        return new EnrolleeSelect(UUID.randomUUID(), 1, UUID.randomUUID(), (short) 0, 0, Instant.now(), null, null, (short) 1);
+    }
+
+    private static String normalize(String sql) {
+        return sql.replaceAll("\\s+", " ");
+    }
+
+    private static int placeholders(String sql) {
+        return (int) sql.chars().filter(c -> c == '?').count();
+    }
+
+    /**
+     * Remembers last statement instead of running it
+     */
+    private static final class CapturingJdbcTemplate extends JdbcTemplate {
+        String sql;
+        Object[] args;
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            this.sql = sql;
+            this.args = batchArgs.get(0);
+            return new int[batchArgs.size()];
+        }
+
+        @Override
+        public <T> List<T> query(PreparedStatementCreator psc, RowMapper<T> rowMapper) {
+            try {
+                psc.createPreparedStatement(connection());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return List.of();
+        }
+
+        /**
+         * Connection remembering prepared statement, statements do nothing
+         */
+        private Connection connection() {
+            return proxy(Connection.class, (p, m, a) -> {
+                if (m.getName().equals("prepareStatement")) {
+                    sql = (String) a[0];
+                    return proxy(PreparedStatement.class, (ps, pm, pa) -> null);
+                }
+                return null;
+            });
+        }
+
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+        }
+
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            this.sql = sql;
+            this.args = args;
+            return List.of();
+        }
+
+        @Override
+        public <T> T query(String sql, ResultSetExtractor<T> rse, Object... args) {
+            this.sql = sql;
+            this.args = args;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangeSender;
+import com.lastrix.scp.sender.ChangeSenderConfig;
+import com.lastrix.scp.sender.ChangeSourceService;
+import com.lastrix.scp.writesender.dao.ChannelLeaseDao;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelLeaseServiceTest {
+    private static final int CHANNELS = 9;
+
+    private final InMemoryChannelLeaseDao dao = new InMemoryChannelLeaseDao();
+    private final List<Instance> instances = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        instances.forEach(Instance::stop);
+    }
+
+    @Test
+    void everyChannelHasSingleOwnerAfterJoin() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            instances.add(new Instance(dao));
+        }
+        await(() -> isBalanced(3));
+        assertSingleOwners();
+    }
+
+    @Test
+    void channelsOfLeavingInstanceAreTakenByOthers() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            instances.add(new Instance(dao));
+        }
+        await(() -> isBalanced(3));
+        instances.remove(0).stop();
+        // share of every remaining instance is 5, so one of them takes 5 channels
+        await(() -> isBalanced(5));
+        assertSingleOwners();
+        instances.add(new Instance(dao));
+        await(() -> isBalanced(3));
+        assertSingleOwners();
+    }
+
+    /**
+     * Every channel is served by exactly one instance, no instance serves more than share
+     */
+    private boolean isBalanced(int share) {
+        Set<Integer> all = new HashSet<>();
+        int total = 0;
+        for (var i : instances) {
+            var channels = i.ownership.getChannels();
+            if (channels.size() > share || !channels.equals(i.sender.getChannels())) {
+                return false;
+            }
+            all.addAll(channels);
+            total += channels.size();
+        }
+        return total == CHANNELS && all.size() == CHANNELS;
+    }
+
+    private void assertSingleOwners() {
+        Map<Integer, UUID> owners = dao.owners();
+        assertEquals(CHANNELS, owners.size());
+        for (var i : instances) {
+            for (var c : i.ownership.getChannels()) {
+                assertEquals(i.owner(), owners.get(c), "owner of channel " + c);
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition is not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class Instance {
+        final ChannelOwnership ownership = new ChannelOwnership();
+        final DefaultChangeSenderService sender;
+        final ChannelLeaseService lease;
+        final RecordingDao dao;
+        private boolean stopped;
+
+        Instance(InMemoryChannelLeaseDao shared) {
+            var config = new ChangeSenderConfig();
+            config.setChannels(CHANNELS);
+            config.setDynamicChannels(true);
+            config.setPollInterval(Duration.ofMillis(10));
+            sender = new DefaultChangeSenderService(new EmptySource(), new AckSender(), config, 0, CHANNELS, 0xFF, new DeliveryLagTracker(0));
+            dao = new RecordingDao(shared);
+            lease = new ChannelLeaseService(dao, sender, ownership, 0, CHANNELS,
+                    Duration.ofSeconds(5), Duration.ofMillis(20), "table");
+        }
+
+        UUID owner() {
+            return dao.owner;
+        }
+
+        void stop() {
+            if (!stopped) {
+                stopped = true;
+                lease.preDestroy();
+                sender.preDestroy();
+            }
+        }
+    }
+
+    /**
+     * Remembers owner identifier instance uses
+     */
+    private static final class RecordingDao implements ChannelLeaseDao {
+        private final ChannelLeaseDao dao;
+        private volatile UUID owner;
+
+        RecordingDao(ChannelLeaseDao dao) {
+            this.dao = dao;
+        }
+
+        @Override
+        public void createChannels(int start, int end) {
+            dao.createChannels(start, end);
+        }
+
+        @Override
+        public int heartbeat(UUID owner, Duration lease) {
+            this.owner = owner;
+            return dao.heartbeat(owner, lease);
+        }
+
+        @Override
+        public List<Integer> renew(UUID owner, Duration lease) {
+            return dao.renew(owner, lease);
+        }
+
+        @Override
+        public List<Integer> acquire(UUID owner, Duration lease, int start, int end, int limit) {
+            return dao.acquire(owner, lease, start, end, limit);
+        }
+
+        @Override
+        public void release(UUID owner, Collection<Integer> channels) {
+            dao.release(owner, channels);
+        }
+
+        @Override
+        public void leave(UUID owner) {
+            dao.leave(owner);
+        }
+    }
+
+    /**
+     * Same semantics as lease tables, every call is a transaction
+     */
+    private static final class InMemoryChannelLeaseDao implements ChannelLeaseDao {
+        private final Map<UUID, Long> instances = new HashMap<>();
+        private final SortedMap<Integer, Lease> leases = new TreeMap<>();
+
+        @Override
+        public synchronized void createChannels(int start, int end) {
+            for (int c = start; c < end; c++) {
+                leases.putIfAbsent(c, new Lease(null, 0));
+            }
+        }
+
+        @Override
+        public synchronized int heartbeat(UUID owner, Duration lease) {
+            long now = System.nanoTime();
+            instances.put(owner, now + lease.toNanos());
+            instances.values().removeIf(until -> until - now < 0);
+            return instances.size();
+        }
+
+        @Override
+        public synchronized List<Integer> renew(UUID owner, Duration lease) {
+            long until = System.nanoTime() + lease.toNanos();
+            List<Integer> r = new ArrayList<>();
+            leases.replaceAll((c, l) -> {
+                if (!owner.equals(l.owner())) {
+                    return l;
+                }
+                r.add(c);
+                return new Lease(owner, until);
+            });
+            return r;
+        }
+
+        @Override
+        public synchronized List<Integer> acquire(UUID owner, Duration lease, int start, int end, int limit) {
+            long now = System.nanoTime();
+            List<Integer> r = new ArrayList<>();
+            for (var e : leases.subMap(start, end).entrySet()) {
+                if (r.size() == limit) {
+                    break;
+                }
+                var l = e.getValue();
+                if (l.owner() == null || l.until() - now < 0) {
+                    e.setValue(new Lease(owner, now + lease.toNanos()));
+                    r.add(e.getKey());
+                }
+            }
+            return r;
+        }
+
+        @Override
+        public synchronized void release(UUID owner, Collection<Integer> channels) {
+            for (var c : channels) {
+                leases.computeIfPresent(c, (k, l) -> owner.equals(l.owner()) ? new Lease(null, 0) : l);
+            }
+        }
+
+        @Override
+        public synchronized void leave(UUID owner) {
+            leases.replaceAll((c, l) -> owner.equals(l.owner()) ? new Lease(null, 0) : l);
+            instances.remove(owner);
+        }
+
+        synchronized Map<Integer, UUID> owners() {
+            Map<Integer, UUID> r = new HashMap<>();
+            leases.forEach((c, l) -> {
+                if (l.owner() != null) {
+                    r.put(c, l.owner());
+                }
+            });
+            return r;
+        }
+    }
+
+    private record Lease(UUID owner, long until) {
+    }
+
+    private static final class EmptySource implements ChangeSourceService<EnrolleeSelect> {
+        @Override
+        public List<EnrolleeSelect> fetch(int page) {
+            return List.of();
+        }
+
+        @Override
+        public void commit(List<EnrolleeSelect> changes) {
+        }
+    }
+
+    private static final class AckSender implements ChangeSender<EnrolleeSelect> {
+        @Override
+        public List<EnrolleeSelect> send(List<EnrolleeSelect> changes, int channel) {
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangeSender;
+import com.lastrix.scp.sender.ChangeSenderConfig;
+import com.lastrix.scp.sender.ChangeSourceService;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DefaultChangeSenderServiceTest {
+    private static final UUID USER = UUID.randomUUID();
+    private static final UUID OTHER_USER = UUID.randomUUID();
+    private static final UUID SPEC = UUID.randomUUID();
+
+    @Test
+    void cancellationDoesNotOvertakeEarlierOrdinalOfSelection() throws InterruptedException {
+        var routine = select(USER, 1, false);
+        // cancelled, but source did not promote it, ordinal 1 is still pending
+        var cancelled = select(USER, 2, false);
+        cancelled.setCancelledStamp(Instant.now());
+        var promoted = select(OTHER_USER, 1, true);
+        promoted.setCancelledStamp(Instant.now());
+        var sender = new RecordingSender();
+        var service = newService(List.of(routine, cancelled, promoted), sender);
+        try {
+            awaitSize(sender.sent, 3);
+            assertEquals(List.of(promoted, routine, cancelled), sender.sent);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    @Test
+    void promotedChangeGoesFirst() throws InterruptedException {
+        var routine = select(OTHER_USER, 1, false);
+        var confirmed = select(USER, 3, true);
+        confirmed.setConfirmedStamp(Instant.now());
+        var sender = new RecordingSender();
+        var service = newService(List.of(routine, confirmed), sender);
+        try {
+            awaitSize(sender.sent, 2);
+            assertEquals(List.of(confirmed, routine), sender.sent);
+        } finally {
+            service.preDestroy();
+        }
+    }
+
+    private static DefaultChangeSenderService newService(List<EnrolleeSelect> changes, RecordingSender sender) {
+        var config = new ChangeSenderConfig();
+        config.setChannels(1);
+        config.setLanes(2);
+        config.setPollInterval(Duration.ofMillis(10));
+        config.setCommitLinger(Duration.ofMillis(1));
+        // mask 0 puts every change into channel 0
+        return new DefaultChangeSenderService(new OnceSource(changes), sender, config, 0, 1, 0, new DeliveryLagTracker(0));
+    }
+
+    private static EnrolleeSelect select(UUID userId, int ordinal, boolean urgent) {
+        var r = new EnrolleeSelect(userId, 1, SPEC, (short) 0, 0, Instant.now(), null, null, (short) ordinal);
+        r.setUrgent(urgent);
+        return r;
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class OnceSource implements ChangeSourceService<EnrolleeSelect> {
+        private final List<EnrolleeSelect> changes;
+        private final AtomicBoolean read = new AtomicBoolean();
+
+        OnceSource(List<EnrolleeSelect> changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public List<EnrolleeSelect> fetch(int page) {
+            return page == 0 && read.compareAndSet(false, true) ? changes : List.of();
+        }
+
+        @Override
+        public void commit(List<EnrolleeSelect> changes) {
+        }
+    }
+
+    private static final class RecordingSender implements ChangeSender<EnrolleeSelect> {
+        final List<EnrolleeSelect> sent = new CopyOnWriteArrayList<>();
+
+        @Override
+        public List<EnrolleeSelect> send(List<EnrolleeSelect> changes, int channel) {
+            sent.addAll(changes);
+            return changes;
+        }
+    }
+}
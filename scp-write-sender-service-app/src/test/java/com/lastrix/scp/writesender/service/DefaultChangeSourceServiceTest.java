@@ -0,0 +1,142 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.sender.ChangePage;
+import com.lastrix.scp.writesender.dao.ChannelFilter;
+import com.lastrix.scp.writesender.dao.EnrolleeDao;
+import com.lastrix.scp.writesender.dao.EnrolleeSelectCursor;
+import com.lastrix.scp.writesender.dao.PostgreChangeListener;
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultChangeSourceServiceTest {
+    @Test
+    void everyClaimedPageIsReadInWritableTransaction() {
+        var tm = new CountingTransactionManager();
+        var dao = new ClaimDao(tm, List.of(List.of(select(1), select(2)), List.of(select(3))));
+        var service = newService(dao, tm);
+        List<EnrolleeSelect> read = new ArrayList<>();
+        // pages are read by default stream through fetchNext called on service itself
+        assertEquals(3, service.stream(read::add));
+        assertEquals(3, read.size());
+        // two pages and empty one
+        assertEquals(List.of(false, false, false), dao.readOnly);
+        assertEquals(3, tm.begun);
+        assertEquals(3, tm.finished);
+    }
+
+    private static DefaultChangeSourceService newService(EnrolleeDao dao, PlatformTransactionManager tm) {
+        var beans = new StaticListableBeanFactory();
+        return new DefaultChangeSourceService(dao, FetchMode.CLAIM, Duration.ofSeconds(30), 100, true, false,
+                0, 1, 0, beans.getBeanProvider(PostgreChangeListener.class), beans.getBeanProvider(ChannelOwnership.class), tm);
+    }
+
+    private static EnrolleeSelect select(int ordinal) {
+        return new EnrolleeSelect(UUID.randomUUID(), 1, UUID.randomUUID(), (short) 0, 0, Instant.now(), null, null, (short) ordinal);
+    }
+
+    /**
+     * Transactions do nothing, only begun and finished ones are counted
+     */
+    private static final class CountingTransactionManager implements PlatformTransactionManager {
+        int begun;
+        int finished;
+        Boolean readOnly;
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            begun++;
+            readOnly = definition != null && definition.isReadOnly();
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            finished++;
+            readOnly = null;
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            finished++;
+            readOnly = null;
+        }
+    }
+
+    /**
+     * Returns given pages in order, then empty ones
+     */
+    private static final class ClaimDao implements EnrolleeDao {
+        private final CountingTransactionManager tm;
+        private final List<List<EnrolleeSelect>> pages;
+        /**
+         * Whether transaction of every claim was read only, null if there was none
+         */
+        final List<Boolean> readOnly = new ArrayList<>();
+
+        ClaimDao(CountingTransactionManager tm, List<List<EnrolleeSelect>> pages) {
+            this.tm = tm;
+            this.pages = new ArrayList<>(pages);
+        }
+
+        @Override
+        public List<EnrolleeSelect> claim(UUID token, Duration lease, ChannelFilter filter, boolean urgentFirst) {
+            readOnly.add(tm.readOnly);
+            return pages.isEmpty() ? List.of() : pages.remove(0);
+        }
+
+        @Override
+        public int commit(List<EnrolleeSelect> changes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<EnrolleeSelect> fetch(int page) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ChangePage<EnrolleeSelect> fetchAfter(EnrolleeSelectCursor cursor, ChannelFilter filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int stream(ChannelFilter filter, int fetchSize, Predicate<EnrolleeSelect> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<EnrolleeSelect> fetchUrgent(ChannelFilter filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int confirm(List<EnrolleeSelectId> list) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<EnrolleeSelectId> bulkCommit(List<EnrolleeSelect> changes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<EnrolleeSelectId> bulkConfirm(List<EnrolleeSelectId> list) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
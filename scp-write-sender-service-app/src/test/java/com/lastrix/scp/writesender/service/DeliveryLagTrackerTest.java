@@ -0,0 +1,84 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import com.lastrix.scp.writesender.model.EnrolleeSelectId;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeliveryLagTrackerTest {
+    private static final UUID SPEC = UUID.randomUUID();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void lagIsRecordedFromAcknowledgementOnConfirmation() {
+        var tracker = new DeliveryLagTracker(16);
+        tracker.bindTo(registry);
+        var a = select(1);
+        var b = select(2);
+        long acknowledged = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+        tracker.acknowledged(List.of(a, b), 3, acknowledged);
+        tracker.confirmed(List.of(idOf(a)));
+        var timer = timer(3);
+        assertEquals(1, timer.count());
+        assertTrue(timer.totalTime(TimeUnit.SECONDS) >= 1);
+        // confirmation is recorded once
+        tracker.confirmed(List.of(idOf(a), idOf(b)));
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    void unknownConfirmationsAreIgnored() {
+        var tracker = new DeliveryLagTracker(16);
+        tracker.bindTo(registry);
+        tracker.acknowledged(List.of(select(1)), 0, System.nanoTime());
+        tracker.confirmed(List.of(idOf(select(2))));
+        // timer of channel is made on first confirmation
+        assertNull(registry.find("scp.sender.lag.confirm").timer());
+    }
+
+    @Test
+    void acknowledgementsAboveCapacityAreNotRemembered() {
+        var tracker = new DeliveryLagTracker(4);
+        tracker.bindTo(registry);
+        List<EnrolleeSelect> changes = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            var c = select(i);
+            changes.add(c);
+            tracker.acknowledged(List.of(c), 0, System.nanoTime());
+        }
+        tracker.confirmed(changes.stream().map(DeliveryLagTrackerTest::idOf).toList());
+        assertEquals(4, timer(0).count());
+    }
+
+    @Test
+    void nothingIsRememberedTillBound() {
+        var tracker = new DeliveryLagTracker(16);
+        var a = select(1);
+        tracker.acknowledged(List.of(a), 0, System.nanoTime());
+        tracker.bindTo(registry);
+        tracker.confirmed(List.of(idOf(a)));
+        assertNull(registry.find("scp.sender.lag.confirm").timer());
+    }
+
+    private Timer timer(int channel) {
+        return registry.get("scp.sender.lag.confirm").tag("channel", String.valueOf(channel)).timer();
+    }
+
+    private static EnrolleeSelect select(int ordinal) {
+        return new EnrolleeSelect(UUID.randomUUID(), 1, SPEC, (short) 0, 0, Instant.now(), null, null, (short) ordinal);
+    }
+
+    private static EnrolleeSelectId idOf(EnrolleeSelect c) {
+        return new EnrolleeSelectId(c.getUserId(), c.getSessionId(), c.getSpecId(), c.getOrdinal());
+    }
+}
@@ -0,0 +1,110 @@
+package com.lastrix.scp.writesender.service;
+
+import com.lastrix.scp.writesender.model.EnrolleeSelect;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Feeds decoded rows to handler of source directly, no replication connection is opened
+ */
+class ReplicationChangeSourceServiceTest {
+    private static final UUID USER = UUID.randomUUID();
+    private static final UUID SPEC = UUID.randomUUID();
+
+    private final ReplicationChangeSourceService source =
+            new ReplicationChangeSourceService(new DataSourceProperties(), "scp_wss_test", "scp_wss_test");
+
+    @Test
+    void rowChangedTwiceInTransactionIsReturnedOnceWithLastVersion() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onRow(row(1, 20), (short) 0);
+        source.handler.onCommit(100);
+
+        var ready = source.takeReady();
+        assertEquals(1, ready.size());
+        assertEquals(20, ready.get(0).getScore());
+
+        source.commit(ready);
+        assertEquals(100, source.getAcknowledgedLsn());
+    }
+
+    @Test
+    void rowLeavingPendingStateInTransactionIsNotReturned() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onRow(row(1, 10), (short) 1);
+        source.handler.onCommit(100);
+
+        assertTrue(source.takeReady().isEmpty());
+        assertEquals(100, source.getAcknowledgedLsn());
+    }
+
+    @Test
+    void rowMovedToLaterTransactionReleasesEarlierOne() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onRow(row(2, 10), (short) 0);
+        source.handler.onCommit(100);
+        var first = source.takeReady();
+        assertEquals(2, first.size());
+
+        // first row changes again before its commit
+        source.handler.onRow(row(1, 30), (short) 0);
+        source.handler.onCommit(200);
+        assertTrue(source.takeReady().isEmpty(), "returned rows are not returned again");
+
+        source.commit(List.of(first.get(1)));
+        assertEquals(100, source.getAcknowledgedLsn());
+        source.commit(List.of(first.get(0)));
+        assertEquals(200, source.getAcknowledgedLsn());
+    }
+
+    @Test
+    void rowNotYetReturnedIsReplacedByLaterVersion() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onCommit(100);
+        source.handler.onRow(row(1, 30), (short) 0);
+        source.handler.onCommit(200);
+        assertEquals(100, source.getAcknowledgedLsn());
+
+        var ready = source.takeReady();
+        assertEquals(1, ready.size());
+        assertEquals(30, ready.get(0).getScore());
+        source.commit(ready);
+        assertEquals(200, source.getAcknowledgedLsn());
+    }
+
+    @Test
+    void skippedRowsDoNotHoldPosition() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onRow(row(2, 10), (short) 0);
+        source.handler.onCommit(100);
+        var ready = source.takeReady();
+
+        source.commit(List.of(ready.get(0)));
+        assertEquals(0, source.getAcknowledgedLsn());
+        source.skip(List.of(ready.get(1)));
+        assertEquals(100, source.getAcknowledgedLsn());
+    }
+
+    @Test
+    void committedRowReplayedIsNotReturnedAgain() {
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onCommit(100);
+        source.commit(source.takeReady());
+
+        source.handler.onRow(row(1, 10), (short) 0);
+        source.handler.onCommit(200);
+        assertTrue(source.takeReady().isEmpty());
+        assertEquals(200, source.getAcknowledgedLsn());
+    }
+
+    private static EnrolleeSelect row(int ordinal, int score) {
+        return new EnrolleeSelect(USER, 1, SPEC, (short) 0, score, Instant.now(), null, null, (short) ordinal);
+    }
+}
@@ -1,5 +1,6 @@
 package com.lastrix.scp.writesender.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.time.Instant;
@@ -22,6 +23,16 @@ public class EnrolleeSelect {
      * Change number of this record
      */
     private short ordinal;
+    /**
+     * Time of last row modification, used to measure delivery lag, not sent to consumers
+     */
+    @JsonIgnore
+    private Instant modifiedStamp;
+    /**
+     * Change may be sent before routine ones, decided by source, not sent to consumers
+     */
+    @JsonIgnore
+    private boolean urgent;
 
     public EnrolleeSelect() {
     }
@@ -109,4 +120,20 @@ public class EnrolleeSelect {
     public void setOrdinal(short ordinal) {
         this.ordinal = ordinal;
     }
+
+    public Instant getModifiedStamp() {
+        return modifiedStamp;
+    }
+
+    public void setModifiedStamp(Instant modifiedStamp) {
+        this.modifiedStamp = modifiedStamp;
+    }
+
+    public boolean isUrgent() {
+        return urgent;
+    }
+
+    public void setUrgent(boolean urgent) {
+        this.urgent = urgent;
+    }
 }